@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2012 Enclave. All rights reserved.
+ *
+ * This software is the confidential and proprietary information of Clare Controls ("Confidential Information"). You
+ * shall not disclose or reproduce such Confidential Information and shall use it only in accordance with the terms of
+ * the license agreement you entered into with Clare Controls.
+ */
+package com.clarecontrols.equator.solstice.db.entities;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * ImportCheckpoint represents the persisted state of a chunked project version import.
+ * <p>
+ * Id mappings are {@link ImportCheckpointId} rows, so that each chunk only inserts its own rows and a resumed import
+ * reads them without loading a collection.
+ */
+@Entity
+@Table(name = "import_checkpoint")
+public class ImportCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Import phases, in execution order.
+     */
+    public enum Phase {
+        ZONES, PROJECT_VERSION, DEVICES, DEVICE_DEVICE, CFNODES, CFNODE_CFNODE, SERVICE_INSTANCES, DONE
+    }
+
+    /**
+     * Import status.
+     */
+    public enum Status {
+        PENDING, RUNNING, FAILED, DONE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Integer id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "phase", nullable = false, length = 32)
+    private Phase phase = Phase.ZONES;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private Status status = Status.PENDING;
+
+    @Column(name = "phase_offset", nullable = false)
+    private int offset;
+
+    @Column(name = "chunk_size", nullable = false)
+    private int chunkSize;
+
+    @Column(name = "project_version_id")
+    private Integer projectVersionId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "last_update")
+    private Date lastUpdate;
+
+    @Column(name = "payload_fingerprint", length = 64)
+    private String payloadFingerprint;
+
+    @Column(name = "run_id", length = 36)
+    private String runId;
+
+    @ElementCollection
+    @CollectionTable(name = "import_checkpoint_error", joinColumns = @JoinColumn(name = "checkpoint_id"))
+    @Column(name = "error", length = 1024)
+    private Set<String> errors = new HashSet<>();
+
+    /**
+     * @return The id.
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * @return The phase.
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @param phase - The phase to set.
+     */
+    public void setPhase(final Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * @return The status.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @param status - The status to set.
+     */
+    public void setStatus(final Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return The offset of the next record to import within the current phase.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @param offset - The offset to set.
+     */
+    public void setOffset(final int offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @return The chunkSize.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize - The chunkSize to set.
+     */
+    public void setChunkSize(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return The projectVersionId.
+     */
+    public Integer getProjectVersionId() {
+        return projectVersionId;
+    }
+
+    /**
+     * @param projectVersionId - The projectVersionId to set.
+     */
+    public void setProjectVersionId(final Integer projectVersionId) {
+        this.projectVersionId = projectVersionId;
+    }
+
+    /**
+     * @return The lastUpdate.
+     */
+    public Date getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * @param lastUpdate - The lastUpdate to set.
+     */
+    public void setLastUpdate(final Date lastUpdate) {
+        this.lastUpdate = lastUpdate;
+    }
+
+    /**
+     * @return The SHA-256 of the payload the checkpoint was started with, hex encoded.
+     */
+    public String getPayloadFingerprint() {
+        return payloadFingerprint;
+    }
+
+    /**
+     * @param payloadFingerprint - The payloadFingerprint to set.
+     */
+    public void setPayloadFingerprint(final String payloadFingerprint) {
+        this.payloadFingerprint = payloadFingerprint;
+    }
+
+    /**
+     * @return The id of the run owning the checkpoint.
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * @param runId - The runId to set.
+     */
+    public void setRunId(final String runId) {
+        this.runId = runId;
+    }
+
+    /**
+     * @return The errors.
+     */
+    public Set<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012 Enclave. All rights reserved.
+ *
+ * This software is the confidential and proprietary information of Clare Controls ("Confidential Information"). You
+ * shall not disclose or reproduce such Confidential Information and shall use it only in accordance with the terms of
+ * the license agreement you entered into with Clare Controls.
+ */
+package com.clarecontrols.equator.solstice.db.entities;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+/**
+ * ImportCheckpointId represents the payload id to entity id mapping of a record imported by a chunked import.
+ */
+@Entity
+@Table(name = "import_checkpoint_id")
+@IdClass(ImportCheckpointId.Key.class)
+public class ImportCheckpointId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kinds of imported records.
+     */
+    public enum Kind {
+        ZONE, DEVICE, CFNODE
+    }
+
+    @Id
+    @Column(name = "checkpoint_id")
+    private int checkpointId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "kind", length = 16)
+    private Kind kind;
+
+    @Id
+    @Column(name = "payload_id")
+    private int payloadId;
+
+    @Column(name = "entity_id", nullable = false)
+    private int entityId;
+
+    /**
+     * Constructor.
+     */
+    public ImportCheckpointId() {
+    }
+
+    /**
+     * @param checkpointId checkpoint id
+     * @param kind record kind
+     * @param payloadId payload id
+     * @param entityId entity id
+     */
+    public ImportCheckpointId(final int checkpointId, final Kind kind, final int payloadId, final int entityId) {
+        this.checkpointId = checkpointId;
+        this.kind = kind;
+        this.payloadId = payloadId;
+        this.entityId = entityId;
+    }
+
+    /**
+     * @return The checkpointId.
+     */
+    public int getCheckpointId() {
+        return checkpointId;
+    }
+
+    /**
+     * @return The kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The payloadId.
+     */
+    public int getPayloadId() {
+        return payloadId;
+    }
+
+    /**
+     * @return The entityId.
+     */
+    public int getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Key represents the primary key of an id mapping.
+     */
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int checkpointId;
+        private Kind kind;
+        private int payloadId;
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return checkpointId == other.checkpointId && kind == other.kind && payloadId == other.payloadId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(checkpointId, kind, payloadId);
+        }
+    }
+}
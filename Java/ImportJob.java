@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2012 Enclave. All rights reserved.
+ *
+ * This software is the confidential and proprietary information of Clare Controls ("Confidential Information"). You
+ * shall not disclose or reproduce such Confidential Information and shall use it only in accordance with the terms of
+ * the license agreement you entered into with Clare Controls.
+ */
+package com.clarecontrols.equator.solstice.api.beta1;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import com.clarecontrols.equator.solstice.api.model.ImportResult;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpoint.Phase;
+
+/**
+ * ImportJob represents a project version import running on an executor.
+ * <p>
+ * The import runs with its own entity manager. Cancellation is cooperative: the import checks it between records and
+ * between phases, then rolls back the running transaction.
+ */
+public final class ImportJob {
+
+    private volatile Future<ImportResult> future;
+    private volatile boolean cancelled;
+    private Phase phase;
+    private int processed;
+    private int resumed;
+    private int total = -1;
+    private long phaseStart;
+
+    /**
+     * Submit a single transaction import.
+     * @param executor executor to run the import on
+     * @param factory entity manager factory
+     * @param jsonData json string to import from
+     * @return import job
+     */
+    public static ImportJob submit(final ExecutorService executor, final EntityManagerFactory factory,
+        final String jsonData) {
+        Objects.requireNonNull(factory);
+        Objects.requireNonNull(jsonData);
+        final ImportJob job = new ImportJob();
+        job.future = executor.submit(new Callable<ImportResult>() {
+            @Override
+            public ImportResult call() {
+                job.checkCancelled();
+                final EntityManager eManager = factory.createEntityManager();
+                final EntityTransaction transaction = eManager.getTransaction();
+                try {
+                    transaction.begin();
+                    final ImportResult result = ImportManager.importProjectVersion(eManager, jsonData, job);
+                    // no project version when its lookups failed: the errors are returned, nothing is persisted
+                    if (result.getProjectVersion() != null && !eManager.contains(result.getProjectVersion())) {
+                        eManager.persist(result.getProjectVersion());
+                    }
+                    transaction.commit();
+                    return result;
+                } finally {
+                    if (transaction.isActive()) {
+                        transaction.rollback();
+                    }
+                    eManager.close();
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Submit a chunked import; a cancelled or failed job can be resumed by submitting the same checkpoint again.
+     * @param executor executor to run the import on
+     * @param factory entity manager factory
+     * @param checkpointId checkpoint id, see {@link ImportManager#createImportCheckpoint(EntityManager, int)}
+     * @param jsonData json string to import from
+     * @return import job
+     */
+    public static ImportJob submit(final ExecutorService executor, final EntityManagerFactory factory,
+        final int checkpointId, final String jsonData) {
+        Objects.requireNonNull(factory);
+        Objects.requireNonNull(jsonData);
+        final ImportJob job = new ImportJob();
+        job.future = executor.submit(new Callable<ImportResult>() {
+            @Override
+            public ImportResult call() {
+                job.checkCancelled();
+                final EntityManager eManager = factory.createEntityManager();
+                try {
+                    return ImportManager.importProjectVersion(eManager, checkpointId, jsonData, job);
+                } finally {
+                    eManager.close();
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Constructor.
+     */
+    private ImportJob() {
+        // use submit
+    }
+
+    /**
+     * Request cancellation; the import stops at the next record. The job is done once the import stopped and its
+     * running transaction was rolled back, so a chunked import can then be resumed safely.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if cancellation was requested
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return <code>true</code> if the import completed, failed or was cancelled
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * @return The progress of the current phase.
+     */
+    public synchronized ImportProgress getProgress() {
+        final long elapsed = phase == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart);
+        return new ImportProgress(phase, processed, resumed, total, elapsed);
+    }
+
+    /**
+     * @return import result
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ExecutionException if the import failed
+     */
+    public ImportResult getResult() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    /**
+     * @param timeout maximum time to wait
+     * @param unit time unit of the timeout
+     * @return import result
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws ExecutionException if the import failed
+     * @throws TimeoutException if the import did not complete in time
+     */
+    public ImportResult getResult(final long timeout, final TimeUnit unit) throws InterruptedException,
+        ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    /**
+     * @param newPhase phase the import enters or continues
+     * @param newTotal records of the phase, -1 if unknown
+     * @param newProcessed records already processed in the phase, by an earlier run of a resumed import
+     */
+    synchronized void enterPhase(final Phase newPhase, final int newTotal, final int newProcessed) {
+        checkCancelled();
+        if (newPhase != phase) {
+            phase = newPhase;
+            phaseStart = System.nanoTime();
+            processed = newProcessed;
+            resumed = newProcessed;
+        }
+        total = newTotal;
+    }
+
+    /**
+     * Report a phase whose records are imported at once as complete.
+     * @param newTotal records of the phase
+     */
+    synchronized void completePhase(final int newTotal) {
+        checkCancelled();
+        total = newTotal;
+        processed = newTotal;
+    }
+
+    /**
+     * Count a processed record.
+     */
+    synchronized void recordProcessed() {
+        checkCancelled();
+        processed++;
+    }
+
+    /**
+     * @throws CancellationException if cancellation was requested
+     */
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException(String.format("Import cancelled [phase=%s, processed=%d]", phase,
+                processed));
+        }
+    }
+}
@@ -7,18 +7,29 @@
  */
 package com.clarecontrols.equator.solstice.api.beta1;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
 
 import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,6 +40,11 @@ import com.clarecontrols.equator.solstice.db.entities.DeviceCategory;
 import com.clarecontrols.equator.solstice.db.entities.DeviceClass;
 import com.clarecontrols.equator.solstice.db.entities.DeviceItem;
 import com.clarecontrols.equator.solstice.db.entities.DeviceType;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpoint;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpoint.Phase;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpoint.Status;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpointId;
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpointId.Kind;
 import com.clarecontrols.equator.solstice.db.entities.Project;
 import com.clarecontrols.equator.solstice.db.entities.ProjectVersion;
 import com.clarecontrols.equator.solstice.db.entities.ProtocolAdapter;
@@ -48,9 +64,9 @@ public final class ImportManager {
 
     private ProjectVersion version;
     private final EntityManager entityManager;
-    private final Map<Integer, CFNode> idCFNodeMap = new HashMap<>();
-    private final Map<Integer, DeviceItem> idDeviceMap = new HashMap<>();
-    private final Map<Integer, Zone> idZoneMap = new HashMap<>();
+    private final JIdMap<CFNode> idCFNodeMap;
+    private final JIdMap<DeviceItem> idDeviceMap;
+    private final JIdMap<Zone> idZoneMap;
     private final Map<String, CFProvider> nameTypeCFProviderMap = new HashMap<>();
     private final Map<String, DeviceCategory> nameCategoryMap = new HashMap<>();
     private final Map<String, DeviceClass> nameDeviceClassMap = new HashMap<>();
@@ -58,7 +74,14 @@ public final class ImportManager {
     private final Map<String, ProtocolAdapter> keyProtocolAdapterMap = new HashMap<>();
     private final Map<String, ServiceDefinition> keyServiceDefinitionMap = new HashMap<>();
     private final Map<String, User> emailUserMap = new HashMap<>();
+    private final Map<String, DeviceItem> keyTemplateMap = new HashMap<>();
+    private final JStringPool stringPool = new JStringPool();
     private final Set<String> errors = new HashSet<String>();
+    private List<Object> createdEntities;
+    private final List<Integer> createdIds = new ArrayList<>();
+    private ImportJob job;
+    private JDictionary dictionary;
+    private final Map<String, JEdgeList> edgeLists = new HashMap<>();
 
     /**
      * @param eManager entity manager
@@ -66,15 +89,61 @@ public final class ImportManager {
      * @return import result
      */
     public static ImportResult importProjectVersion(final EntityManager eManager, final String jsonData) {
+        return importProjectVersion(eManager, jsonData, null);
+    }
+
+    /**
+     * @param eManager entity manager
+     * @param jsonData json string to import from
+     * @param job import job to report progress to, may be <code>null</code>
+     * @return import result
+     */
+    static ImportResult importProjectVersion(final EntityManager eManager, final String jsonData, final ImportJob job) {
+        try {
+            return importProjectVersion(eManager, new JSONObject(jsonData), job);
+        } catch (final JSONException ex) {
+            throw new APIException(APIErrorCode.GENERIC_ERROR, ex);
+        }
+    }
+
+    /**
+     * @param eManager entity manager
+     * @param in stream of the json payload, plain or compressed with a registered codec (gzip, deflate, ...)
+     * @return import result
+     */
+    public static ImportResult importProjectVersion(final EntityManager eManager, final InputStream in) {
+        try {
+            return importProjectVersion(eManager, JCodec.read(in, JCodec.DEFAULT_BUFFER_SIZE), null);
+        } catch (final IOException | JSONException ex) {
+            throw new APIException(APIErrorCode.GENERIC_ERROR, ex);
+        }
+    }
+
+    /**
+     * @param eManager entity manager
+     * @param jsonProjectVersion json to import from
+     * @param job import job to report progress to, may be <code>null</code>
+     * @return import result
+     */
+    private static ImportResult importProjectVersion(final EntityManager eManager,
+        final JSONObject jsonProjectVersion, final ImportJob job) {
         try {
-            final JSONObject jsonProjectVersion = new JSONObject(jsonData);
             final ImportManager manager = new ImportManager(eManager);
+            manager.job = job;
+            manager.enterPhase(Phase.ZONES, jsonProjectVersion.optJSONArray(JKey.ZONES), 0);
             JZone.importZones(manager, jsonProjectVersion);
+            manager.completePhase(length(jsonProjectVersion.optJSONArray(JKey.ZONES)));
+            manager.enterPhase(Phase.PROJECT_VERSION, null, 0);
             JProjectVersion.importProjectVersion(manager, jsonProjectVersion.getJSONObject(JKey.PROJECT_VERSION));
             // Utils.assertProjectPermission(user, Permission.EditProject, manager.getVersion().getProject());
+            manager.enterPhase(Phase.DEVICES, jsonProjectVersion.optJSONArray(JKey.DEVICES), 0);
             JDeviceItem.importDeviceItems(manager, jsonProjectVersion);
+            manager.enterPhase(Phase.CFNODES, jsonProjectVersion.optJSONArray(JKey.CFNODES), 0);
             JCFNode.importCFNodes(manager, jsonProjectVersion);
+            manager.enterPhase(Phase.SERVICE_INSTANCES, null, 0);
             JServiceInstance.importServiceInstances(manager, jsonProjectVersion);
+            manager.completePhase(manager.getVersion() == null ? 0 : manager.getVersion().getServiceInstances().size());
+            manager.enterPhase(Phase.DONE, null, 0);
             final ImportResult result = new ImportResult();
             result.setProjectVersion(manager.getVersion());
             result.setErrors(manager.getErrors());
@@ -84,12 +153,239 @@ public final class ImportManager {
         }
     }
 
+    /**
+     * Dry-run: resolve every reference of the payload against the lookup tables and check that zone and parent/child
+     * references point at records of the payload, without creating any entity. Records are decoded one at a time.
+     * <p>
+     * The project version and the service instances go through their import helpers, so that their lookups (project,
+     * service definitions) and their references to payload records are checked exactly as on import; the helpers only
+     * build transient entities, linked to transient placeholders of the payload zones, devices and CFNodes, which are
+     * discarded.
+     * @param eManager entity manager
+     * @param jsonData json string to validate
+     * @return import result with errors only
+     */
+    public static ImportResult validateProjectVersion(final EntityManager eManager, final String jsonData) {
+        try {
+            final JSONObject jsonProjectVersion = JLazyDocument.parse(jsonData).getJSONObject();
+            final ImportManager manager = new ImportManager(eManager);
+            final Zone placeholder = new Zone();
+            final JSONArray zones = jsonProjectVersion.optJSONArray(JKey.ZONES);
+            if (zones != null) {
+                for (int index = 0, size = zones.length(); index < size; index++) {
+                    manager.idZoneMap.put(zones.getJSONObject(index).getInt(JKey.ID), placeholder);
+                }
+            }
+            JDeviceItem.validateDeviceItems(manager, jsonProjectVersion, manager.idZoneMap.keySet());
+            JCFNode.validateCFNodes(manager, jsonProjectVersion);
+            JProjectVersion.importProjectVersion(manager, jsonProjectVersion.getJSONObject(JKey.PROJECT_VERSION));
+            JServiceInstance.importServiceInstances(manager, jsonProjectVersion);
+            final ImportResult result = new ImportResult();
+            result.setErrors(manager.getErrors());
+            return result;
+        } catch (final JSONException ex) {
+            throw new APIException(APIErrorCode.GENERIC_ERROR, ex);
+        }
+    }
+
+    /**
+     * Create the checkpoint of a chunked import; run it with {@link #importProjectVersion(EntityManager, int, String)}.
+     * @param eManager resource-local entity manager without active transaction
+     * @param chunkSize number of devices/CFNodes imported per transaction
+     * @return checkpoint id
+     */
+    public static int createImportCheckpoint(final EntityManager eManager, final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(String.format(ERROR_INVALID_CHUNK_SIZE, chunkSize));
+        }
+        final ImportCheckpoint checkpoint = new ImportCheckpoint();
+        checkpoint.setChunkSize(chunkSize);
+        checkpoint.setLastUpdate(new Date());
+        final EntityTransaction transaction = eManager.getTransaction();
+        transaction.begin();
+        eManager.persist(checkpoint);
+        transaction.commit();
+        return checkpoint.getId();
+    }
+
+    /**
+     * Run or resume a chunked import. Every chunk is committed together with its checkpoint, so a failed or interrupted
+     * import can be called again with the same checkpoint and payload and continues after the last committed chunk;
+     * records before the checkpoint offset are only scanned, not decoded.
+     * <p>
+     * A checkpoint is bound to the payload of its first run and is owned by one run at a time: a different payload, a
+     * done checkpoint or a checkpoint run elsewhere is rejected, without touching the checkpoint. A run that stopped
+     * without marking its checkpoint as failed (e.g. a killed process) can be resumed once the checkpoint has not
+     * been updated for {@value #STALE_RUN_MINUTES} minutes.
+     * <p>
+     * After each chunk the persistence context is cleared and the payload id to entity id mappings are kept off-heap
+     * (see {@link JIdStore}), so the heap used does not grow with the number of imported records.
+     * @param eManager resource-local entity manager without active transaction
+     * @param checkpointId checkpoint id, see {@link #createImportCheckpoint(EntityManager, int)}
+     * @param jsonData json string to import from
+     * @return import result
+     */
+    public static ImportResult importProjectVersion(final EntityManager eManager, final int checkpointId,
+        final String jsonData) {
+        return importProjectVersion(eManager, checkpointId, jsonData, null);
+    }
+
+    /**
+     * @param eManager resource-local entity manager without active transaction
+     * @param checkpointId checkpoint id
+     * @param jsonData json string to import from
+     * @param job import job to report progress to, may be <code>null</code>
+     * @return import result
+     */
+    static ImportResult importProjectVersion(final EntityManager eManager, final int checkpointId,
+        final String jsonData, final ImportJob job) {
+        final String runId = UUID.randomUUID().toString();
+        ImportCheckpoint checkpoint = claim(eManager, checkpointId, fingerprint(jsonData), runId);
+        final EntityTransaction transaction = eManager.getTransaction();
+        final ImportManager manager = new ImportManager(eManager);
+        try {
+            final JSONObject jsonProjectVersion = JLazyDocument.parse(jsonData).getJSONObject();
+            manager.job = job;
+            manager.restore(checkpoint);
+            while (checkpoint.getPhase() != Phase.DONE) {
+                transaction.begin();
+                // lock the checkpoint row for the chunk and make sure no other run took it over
+                eManager.refresh(checkpoint, LockModeType.PESSIMISTIC_WRITE);
+                if (!runId.equals(checkpoint.getRunId())) {
+                    throw new IllegalStateException(String.format(ERROR_CHECKPOINT_RUNNING, checkpointId));
+                }
+                manager.importChunk(jsonProjectVersion, checkpoint);
+                transaction.commit();
+                checkpoint = manager.endChunk(checkpoint);
+            }
+            manager.enterPhase(Phase.DONE, null, 0);
+            final ImportResult result = new ImportResult();
+            result.setProjectVersion(eManager.find(ProjectVersion.class, checkpoint.getProjectVersionId()));
+            result.setErrors(manager.getErrors());
+            return result;
+        } catch (final JSONException ex) {
+            markFailed(eManager, checkpointId, runId);
+            throw new APIException(APIErrorCode.GENERIC_ERROR, ex);
+        } catch (final RuntimeException ex) {
+            markFailed(eManager, checkpointId, runId);
+            throw ex;
+        } finally {
+            manager.idZoneMap.clear();
+            manager.idDeviceMap.clear();
+            manager.idCFNodeMap.clear();
+        }
+    }
+
+    /**
+     * Claim a checkpoint for a run, under a row lock.
+     * @param eManager resource-local entity manager without active transaction
+     * @param checkpointId checkpoint id
+     * @param fingerprint fingerprint of the payload
+     * @param runId id of the run
+     * @return claimed checkpoint
+     */
+    private static ImportCheckpoint claim(final EntityManager eManager, final int checkpointId,
+        final String fingerprint, final String runId) {
+        final EntityTransaction transaction = eManager.getTransaction();
+        transaction.begin();
+        try {
+            final ImportCheckpoint checkpoint = eManager.find(ImportCheckpoint.class, checkpointId,
+                LockModeType.PESSIMISTIC_WRITE);
+            if (checkpoint == null) {
+                throw new IllegalArgumentException(String.format(ERROR_CHECKPOINT_NOT_FOUND, checkpointId));
+            }
+            if (checkpoint.getStatus() == Status.DONE) {
+                throw new IllegalStateException(String.format(ERROR_CHECKPOINT_DONE, checkpointId));
+            }
+            if (checkpoint.getStatus() == Status.RUNNING && checkpoint.getLastUpdate() != null
+                && System.currentTimeMillis() - checkpoint.getLastUpdate().getTime() < STALE_RUN_MINUTES * 60000L) {
+                throw new IllegalStateException(String.format(ERROR_CHECKPOINT_RUNNING, checkpointId));
+            }
+            if (checkpoint.getPayloadFingerprint() == null) {
+                checkpoint.setPayloadFingerprint(fingerprint);
+            } else if (!checkpoint.getPayloadFingerprint().equals(fingerprint)) {
+                throw new IllegalArgumentException(String.format(ERROR_CHECKPOINT_PAYLOAD_MISMATCH, checkpointId));
+            }
+            checkpoint.setRunId(runId);
+            checkpoint.setStatus(Status.RUNNING);
+            checkpoint.setLastUpdate(new Date());
+            transaction.commit();
+            return checkpoint;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /**
+     * @param jsonData json payload
+     * @return SHA-256 of the payload characters, hex encoded
+     */
+    private static String fingerprint(final String jsonData) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final byte[] buffer = new byte[FINGERPRINT_BUFFER_SIZE];
+        int length = 0;
+        for (int index = 0, size = jsonData.length(); index < size; index++) {
+            final char c = jsonData.charAt(index);
+            buffer[length++] = (byte) (c >> 8);
+            buffer[length++] = (byte) c;
+            if (length == buffer.length) {
+                digest.update(buffer, 0, length);
+                length = 0;
+            }
+        }
+        digest.update(buffer, 0, length);
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Roll back the current chunk and mark the checkpoint as failed, if the run still owns it.
+     * @param eManager entity manager
+     * @param checkpointId checkpoint id
+     * @param runId id of the run
+     */
+    private static void markFailed(final EntityManager eManager, final int checkpointId, final String runId) {
+        final EntityTransaction transaction = eManager.getTransaction();
+        try {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            eManager.clear();
+            transaction.begin();
+            final ImportCheckpoint checkpoint = eManager.find(ImportCheckpoint.class, checkpointId,
+                LockModeType.PESSIMISTIC_WRITE);
+            if (runId.equals(checkpoint.getRunId())) {
+                checkpoint.setStatus(Status.FAILED);
+                checkpoint.setLastUpdate(new Date());
+            }
+            transaction.commit();
+        } catch (final RuntimeException ex) {
+            // keep the original failure; the checkpoint still points to the last committed chunk
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
     /**
      * Constructor. (it should be "private"; package access due to unit-testing purpose)
      * @param eManager
      */
     ImportManager(final EntityManager entityManager) {
         this.entityManager = entityManager;
+        this.idCFNodeMap = new JIdMap<>(CFNode.class, entityManager);
+        this.idDeviceMap = new JIdMap<>(DeviceItem.class, entityManager);
+        this.idZoneMap = new JIdMap<>(Zone.class, entityManager);
         initCFProviderLookup();
         initDeviceCategoryLookup();
         initDeviceClassLookup();
@@ -140,6 +436,321 @@ public final class ImportManager {
         this.version = version;
     }
 
+    /**
+     * Report the phase to the import job, if any.
+     * @param phase phase the import enters or continues
+     * @param records json records of the phase, <code>null</code> if not counted
+     * @param processed records already processed in the phase
+     */
+    private void enterPhase(final Phase phase, final JSONArray records, final int processed) {
+        if (job != null) {
+            job.enterPhase(phase, records == null ? -1 : records.length(), processed);
+        }
+    }
+
+    /**
+     * Report the current phase as complete to the import job, if any; for phases whose records are imported at once.
+     * @param total records of the phase
+     */
+    private void completePhase(final int total) {
+        if (job != null) {
+            job.completePhase(total);
+        }
+    }
+
+    /**
+     * Report a processed record to the import job, if any; throws CancellationException once the job is cancelled.
+     */
+    void recordProcessed() {
+        if (job != null) {
+            job.recordProcessed();
+        }
+    }
+
+    /**
+     * @param payloadId - Payload id of the entity
+     * @param entity - Entity created by the import; persisted explicitly by chunked imports
+     */
+    void created(final Integer payloadId, final Object entity) {
+        if (createdEntities != null) {
+            createdEntities.add(entity);
+            createdIds.add(payloadId);
+        }
+    }
+
+    /**
+     * Restore the import state of a checkpoint.
+     * @param checkpoint checkpoint to restore from
+     */
+    private void restore(final ImportCheckpoint checkpoint) {
+        createdEntities = new ArrayList<>();
+        if (checkpoint.getProjectVersionId() != null) {
+            version = entityManager.find(ProjectVersion.class, checkpoint.getProjectVersionId());
+        }
+        restoreIds(checkpoint.getId(), Kind.ZONE, idZoneMap);
+        restoreIds(checkpoint.getId(), Kind.DEVICE, idDeviceMap);
+        restoreIds(checkpoint.getId(), Kind.CFNODE, idCFNodeMap);
+        errors.addAll(checkpoint.getErrors());
+    }
+
+    /**
+     * Read the id mappings of a checkpoint page by page into the off-heap store of an id map. Pages are read by key
+     * (payload id above the last one read), so that each page is an index range scan instead of an offset scan.
+     * @param checkpointId checkpoint id
+     * @param kind record kind
+     * @param idMap id map to restore
+     */
+    private void restoreIds(final int checkpointId, final Kind kind, final JIdMap<?> idMap) {
+        final TypedQuery<Object[]> query = entityManager.createQuery(QUERY_CHECKPOINT_IDS, Object[].class);
+        query.setParameter("checkpointId", checkpointId);
+        query.setParameter("kind", kind);
+        query.setMaxResults(RESTORE_PAGE_SIZE);
+        // Integer.MIN_VALUE is reserved by the id store, so it is below every payload id
+        int last = Integer.MIN_VALUE;
+        while (true) {
+            final List<Object[]> rows = query.setParameter("last", last).getResultList();
+            for (final Object[] row : rows) {
+                last = (Integer) row[0];
+                idMap.putEntityId(last, (Integer) row[1]);
+            }
+            if (rows.size() < RESTORE_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Release the records of a committed chunk: their ids are spilled off-heap and the persistence context is cleared.
+     * The clear detaches the cached lookup entities as well, so they are replaced with references of the new context;
+     * a detached entity assigned to a new record would otherwise fail the flush of the next chunk.
+     * @param checkpoint checkpoint committed with the chunk
+     * @return checkpoint, managed again
+     */
+    private ImportCheckpoint endChunk(final ImportCheckpoint checkpoint) {
+        idZoneMap.spill();
+        idDeviceMap.spill();
+        idCFNodeMap.spill();
+        entityManager.clear();
+        if (checkpoint.getProjectVersionId() != null) {
+            version = entityManager.getReference(ProjectVersion.class, checkpoint.getProjectVersionId());
+        }
+        reattach(nameTypeCFProviderMap, CFProvider.class);
+        reattach(nameCategoryMap, DeviceCategory.class);
+        reattach(nameDeviceClassMap, DeviceClass.class);
+        reattach(keyDeviceTypeMap, DeviceType.class);
+        reattach(keyProtocolAdapterMap, ProtocolAdapter.class);
+        reattach(keyServiceDefinitionMap, ServiceDefinition.class);
+        reattach(emailUserMap, User.class);
+        reattach(keyTemplateMap, DeviceItem.class);
+        if (dictionary != null) {
+            dictionary.reattach(this);
+        }
+        return entityManager.find(ImportCheckpoint.class, checkpoint.getId());
+    }
+
+    /**
+     * Replace the entities of a lookup map with references of the current persistence context.
+     * @param lookup lookup map
+     * @param entityClass entity class of the values
+     */
+    private <T> void reattach(final Map<String, T> lookup, final Class<T> entityClass) {
+        for (final Map.Entry<String, T> entry : lookup.entrySet()) {
+            entry.setValue(reference(entityClass, entry.getValue()));
+        }
+    }
+
+    /**
+     * @param entityClass entity class
+     * @param entity entity, possibly detached, may be <code>null</code>
+     * @return reference to the entity in the current persistence context, without loading it
+     */
+    <T> T reference(final Class<T> entityClass, final T entity) {
+        if (entity == null) {
+            return null;
+        }
+        final Object entityId = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+        return entityManager.getReference(entityClass, entityId);
+    }
+
+    /**
+     * Import the next chunk of the current phase and advance the checkpoint.
+     * @param json json to import from
+     * @param checkpoint checkpoint to advance
+     * @throws JSONException json exception
+     */
+    private void importChunk(final JSONObject json, final ImportCheckpoint checkpoint) throws JSONException {
+        final int offset = checkpoint.getOffset();
+        final int chunkSize = checkpoint.getChunkSize();
+        if (checkpoint.getPhase() == Phase.DEVICES) {
+            enterPhase(Phase.DEVICES, json.optJSONArray(JKey.DEVICES), offset);
+        } else if (checkpoint.getPhase() == Phase.CFNODES) {
+            enterPhase(Phase.CFNODES, json.optJSONArray(JKey.CFNODES), offset);
+        } else if (checkpoint.getPhase() == Phase.ZONES) {
+            enterPhase(Phase.ZONES, json.optJSONArray(JKey.ZONES), 0);
+        } else {
+            enterPhase(checkpoint.getPhase(), null, 0);
+        }
+        switch (checkpoint.getPhase()) {
+            case ZONES:
+                JZone.importZones(this, json);
+                createdEntities.addAll(idZoneMap.values());
+                flushCreated();
+                createdIds.addAll(idZoneMap.keySet());
+                recordIds(checkpoint.getId(), Kind.ZONE, idZoneMap);
+                completePhase(length(json.optJSONArray(JKey.ZONES)));
+                checkpoint.setPhase(Phase.PROJECT_VERSION);
+                break;
+            case PROJECT_VERSION:
+                JProjectVersion.importProjectVersion(this, json.getJSONObject(JKey.PROJECT_VERSION));
+                createdEntities.add(version);
+                flushCreated();
+                checkpoint.setProjectVersionId(version.getId());
+                checkpoint.setPhase(Phase.DEVICES);
+                break;
+            case DEVICES:
+                final int nextDevice = JDeviceItem.importDeviceItems(this, json, offset, chunkSize);
+                flushCreated();
+                recordIds(checkpoint.getId(), Kind.DEVICE, idDeviceMap);
+                advance(checkpoint, nextDevice, length(json.optJSONArray(JKey.DEVICES)), Phase.DEVICE_DEVICE);
+                break;
+            case DEVICE_DEVICE:
+                final int nextDeviceEdge = JDeviceItem.linkDeviceItems(this, json, offset, chunkSize);
+                advance(checkpoint, nextDeviceEdge, getEdges(json, JKey.DEVICE_DEVICE,
+                    JDeviceItem.DEVICE_DEVICE_COLUMNS).size(), Phase.CFNODES);
+                break;
+            case CFNODES:
+                final int nextCFNode = JCFNode.importCFNodes(this, json, offset, chunkSize);
+                flushCreated();
+                recordIds(checkpoint.getId(), Kind.CFNODE, idCFNodeMap);
+                advance(checkpoint, nextCFNode, length(json.optJSONArray(JKey.CFNODES)), Phase.CFNODE_CFNODE);
+                break;
+            case CFNODE_CFNODE:
+                final int nextCFNodeEdge = JCFNode.linkCFNodes(this, json, offset, chunkSize);
+                advance(checkpoint, nextCFNodeEdge, getEdges(json, JKey.CFNODE_CFNODE, JCFNode.CFNODE_CFNODE_COLUMNS)
+                    .size(), Phase.SERVICE_INSTANCES);
+                break;
+            case SERVICE_INSTANCES:
+                JServiceInstance.importServiceInstances(this, json);
+                // the helper attaches the instances to the version, which is persisted already: persist them here
+                createdEntities.addAll(version.getServiceInstances());
+                flushCreated();
+                completePhase(version.getServiceInstances().size());
+                checkpoint.setPhase(Phase.DONE);
+                checkpoint.setStatus(Status.DONE);
+                break;
+            default:
+                break;
+        }
+        checkpoint.getErrors().addAll(errors);
+        checkpoint.setLastUpdate(new Date());
+    }
+
+    /**
+     * Persist the entities created since the last flush and flush them to get their ids.
+     */
+    private void flushCreated() {
+        for (final Object entity : createdEntities) {
+            if (!entityManager.contains(entity)) {
+                entityManager.persist(entity);
+            }
+        }
+        createdEntities.clear();
+        entityManager.flush();
+    }
+
+    /**
+     * Record the entity ids of the records created in the chunk.
+     * @param checkpointId checkpoint id
+     * @param kind record kind
+     * @param idMap payload id, entity map of the records
+     */
+    private void recordIds(final int checkpointId, final Kind kind, final JIdMap<?> idMap) {
+        for (final Integer payloadId : createdIds) {
+            final Integer entityId = idMap.getEntityId(payloadId);
+            if (entityId != null) {
+                entityManager.persist(new ImportCheckpointId(checkpointId, kind, payloadId, entityId));
+            }
+        }
+        createdIds.clear();
+    }
+
+    /**
+     * @param checkpoint checkpoint to advance
+     * @param nextIndex index of the next record to import
+     * @param total number of records of the phase
+     * @param nextPhase phase to continue with once every record is imported
+     */
+    private static void advance(final ImportCheckpoint checkpoint, final int nextIndex, final int total,
+        final Phase nextPhase) {
+        if (nextIndex >= total) {
+            checkpoint.setPhase(nextPhase);
+            checkpoint.setOffset(0);
+        } else {
+            checkpoint.setOffset(nextIndex);
+        }
+    }
+
+    /**
+     * @param jsonArray json array, may be <code>null</code>
+     * @return length, 0 if missing
+     */
+    private static int length(final JSONArray jsonArray) {
+        return jsonArray == null ? 0 : jsonArray.length();
+    }
+
+    /**
+     * @param jsonObject json to import from
+     * @param pairsKey key of the pairs format
+     * @param columnsKey key of the columns format
+     * @return parent/child links of the json, read once per import
+     * @throws JSONException json exception
+     */
+    JEdgeList getEdges(final JSONObject jsonObject, final String pairsKey, final String columnsKey)
+        throws JSONException {
+        JEdgeList edges = edgeLists.get(pairsKey);
+        if (edges == null) {
+            edges = JEdgeList.read(jsonObject, pairsKey, columnsKey);
+            edgeLists.put(pairsKey, edges);
+        }
+        return edges;
+    }
+
+    /**
+     * @param jsonObject json to import from
+     * @return lookup dictionary of the json, resolved once per import
+     * @throws JSONException json exception
+     */
+    JDictionary getDictionary(final JSONObject jsonObject) throws JSONException {
+        if (dictionary == null) {
+            dictionary = JDictionary.read(this, jsonObject);
+        }
+        return dictionary;
+    }
+
+    /**
+     * @param value attribute value repeated across records (vendor, model number, ...)
+     * @return de-duplicated value, from the import-scoped pool
+     */
+    String dedup(final String value) {
+        return stringPool.intern(value);
+    }
+
+    /**
+     * @param name name repeated across records and imports (property key, ...)
+     * @return de-duplicated name, from the shared pool
+     */
+    String dedupName(final String name) {
+        return JStringPool.SHARED.intern(name);
+    }
+
+    /**
+     * @param map string properties
+     * @return copy with de-duplicated keys (shared pool) and values (import-scoped pool)
+     */
+    Map<String, String> dedup(final Map<String, String> map) {
+        return stringPool.intern(map, JStringPool.SHARED);
+    }
+
     /**
      * @param error - Error message to add into error list
      */
@@ -364,23 +975,89 @@ public final class ImportManager {
      * @return template correspond
      */
     DeviceItem lookupTemplate(final String name, final String vendor, final String modelNumber, final String version) {
+        if (name == null) {
+            return null;
+        }
+        final String key = name + LOOKUP_KEY_SEPARATOR + vendor + LOOKUP_KEY_SEPARATOR + modelNumber
+            + LOOKUP_KEY_SEPARATOR + version;
+        if (keyTemplateMap.containsKey(key)) {
+            return keyTemplateMap.get(key);
+        }
         final List<DeviceItem> result = new ArrayList<>();
-        if (name != null) {
-            final List<DeviceItem> templates = QueryHelper.getTemplatesByName(entityManager, name);
-            for (final DeviceItem template : templates) {
-                if (StringUtils.equals(template.getVendor(), vendor)
-                    && StringUtils.equals(template.getModelNumber(), modelNumber)
-                    && StringUtils.equals(template.getVersion(), version)) {
-                    result.add(template);
-                }
+        final List<DeviceItem> templates = QueryHelper.getTemplatesByName(entityManager, name);
+        for (final DeviceItem template : templates) {
+            if (StringUtils.equals(template.getVendor(), vendor)
+                && StringUtils.equals(template.getModelNumber(), modelNumber)
+                && StringUtils.equals(template.getVersion(), version)) {
+                result.add(template);
             }
-            if (result.isEmpty()) {
-                addError(String.format(ERROR_TEMPLATE_NOT_FOUND, name, vendor, modelNumber, version));
-            } else if (result.size() > 1) {
-                addError(String.format(ERROR_TEMPLATE_NOT_UNIQUE, name, vendor, modelNumber, version));
+        }
+        if (result.isEmpty()) {
+            addError(String.format(ERROR_TEMPLATE_NOT_FOUND, name, vendor, modelNumber, version));
+        } else if (result.size() > 1) {
+            addError(String.format(ERROR_TEMPLATE_NOT_UNIQUE, name, vendor, modelNumber, version));
+        }
+        final DeviceItem template = result.isEmpty() ? null : result.get(0);
+        keyTemplateMap.put(key, template);
+        return template;
+    }
+
+    /**
+     * @param zoneId payload zone id
+     * @return imported zone correspond
+     */
+    Zone lookupZone(final int zoneId) {
+        final Zone zone = idZoneMap.get(zoneId);
+        if (zone == null) {
+            addError(String.format(ERROR_ZONE_NOT_FOUND, zoneId));
+        }
+        return zone;
+    }
+
+    /**
+     * @param zoneId payload zone id
+     * @param zoneIds payload zone ids
+     */
+    void validateZone(final int zoneId, final Set<Integer> zoneIds) {
+        if (!zoneIds.contains(zoneId)) {
+            addError(String.format(ERROR_ZONE_NOT_FOUND, zoneId));
+        }
+    }
+
+    /**
+     * @param edgeKey json key of the edges (device_device, cfnode_cfnode)
+     * @param parentId payload parent id
+     * @param childId payload child id
+     */
+    void addDanglingEdgeError(final String edgeKey, final int parentId, final int childId) {
+        addError(String.format(ERROR_EDGE_DANGLING, edgeKey, parentId, childId));
+    }
+
+    /**
+     * @param edgeKey json key of the edges (device_device, cfnode_cfnode)
+     * @param parentId payload parent id
+     * @param childId payload child id
+     */
+    void addCyclicEdgeError(final String edgeKey, final int parentId, final int childId) {
+        addError(String.format(ERROR_EDGE_CYCLIC, edgeKey, parentId, childId));
+    }
+
+    /**
+     * @param edgeKey json key of the edges (device_device, cfnode_cfnode)
+     * @param edges parent/child links
+     * @param ids payload ids the edges may refer to
+     */
+    void validateEdges(final String edgeKey, final JEdgeList edges, final Set<Integer> ids) {
+        final BitSet cycles = edges.findCycles();
+        for (int index = 0, size = edges.size(); index < size; index++) {
+            final int parentId = edges.getParent(index);
+            final int childId = edges.getChild(index);
+            if (!ids.contains(parentId) || !ids.contains(childId)) {
+                addDanglingEdgeError(edgeKey, parentId, childId);
+            } else if (cycles.get(index)) {
+                addCyclicEdgeError(edgeKey, parentId, childId);
             }
         }
-        return result.isEmpty() ? null : result.get(0);
     }
 
     /**
@@ -418,6 +1095,15 @@ public final class ImportManager {
     }
 
     private static final String LOOKUP_KEY_SEPARATOR = "$$$";
+    private static final int RESTORE_PAGE_SIZE = 10000;
+    private static final int FINGERPRINT_BUFFER_SIZE = 64 * 1024;
+
+    /** Minutes without update after which a running checkpoint is considered abandoned. */
+    static final int STALE_RUN_MINUTES = 30;
+
+    private static final String QUERY_CHECKPOINT_IDS = //
+        "SELECT i.payloadId, i.entityId FROM ImportCheckpointId i"
+            + " WHERE i.checkpointId = :checkpointId AND i.kind = :kind AND i.payloadId > :last ORDER BY i.payloadId";
 
     private static final String ERROR_CFPROVIDER_NOT_FOUND = //
         "CFProvider not found [name=\"%s\", typeName=\"%s\"]";
@@ -425,6 +1111,18 @@ public final class ImportManager {
     private static final String ERROR_CFPROVIDER_NOT_UNIQUE = //
         "CFProvider not unique [name=\"%s\", typeName=\"%s\"]";
 
+    private static final String ERROR_CHECKPOINT_DONE = //
+        "ImportCheckpoint already done [id=%d]";
+
+    private static final String ERROR_CHECKPOINT_NOT_FOUND = //
+        "ImportCheckpoint not found [id=%d]";
+
+    private static final String ERROR_CHECKPOINT_PAYLOAD_MISMATCH = //
+        "ImportCheckpoint payload mismatch [id=%d]";
+
+    private static final String ERROR_CHECKPOINT_RUNNING = //
+        "ImportCheckpoint already running [id=%d]";
+
     private static final String ERROR_DEVICE_CATEGORY_NOT_FOUND = //
         "DeviceCategory not found [name=\"%s\"]";
 
@@ -443,9 +1141,18 @@ public final class ImportManager {
     private static final String ERROR_DEVICE_TYPE_NOT_UNIQUE = //
         "DeviceType not unique [deviceTypeName=\"%s\", categoryName=\"%s\"]";
 
+    private static final String ERROR_EDGE_CYCLIC = //
+        "Edge closes a parent/child cycle [key=\"%s\", parentId=%d, childId=%d]";
+
+    private static final String ERROR_EDGE_DANGLING = //
+        "Edge refers to a missing record [key=\"%s\", parentId=%d, childId=%d]";
+
     private static final String ERROR_ENTITY_NOT_FOUND = //
         "Entity not found [entityClass=\"%s\", entityId=%d]";
 
+    private static final String ERROR_INVALID_CHUNK_SIZE = //
+        "Invalid chunk size [chunkSize=%d]";
+
     private static final String ERROR_PROJECT_NOT_FOUND = //
         "Project not found [projectName=\"%s\", companyName=\"%s\"]";
 
@@ -469,4 +1176,7 @@ public final class ImportManager {
 
     private static final String ERROR_USER_NOT_FOUND = //
         "User not found [email=\"%s\"]";
+
+    private static final String ERROR_ZONE_NOT_FOUND = //
+        "Zone not found [zoneId=%d]";
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012 Enclave. All rights reserved.
+ *
+ * This software is the confidential and proprietary information of Clare Controls ("Confidential Information"). You
+ * shall not disclose or reproduce such Confidential Information and shall use it only in accordance with the terms of
+ * the license agreement you entered into with Clare Controls.
+ */
+package com.clarecontrols.equator.solstice.api.beta1;
+
+import com.clarecontrols.equator.solstice.db.entities.ImportCheckpoint.Phase;
+
+/**
+ * ImportProgress represents a snapshot of the progress of an import job phase.
+ */
+public final class ImportProgress {
+
+    private final Phase phase;
+    private final int processed;
+    private final int resumed;
+    private final int total;
+    private final long elapsedMillis;
+
+    /**
+     * @param phase current phase
+     * @param processed records processed in the phase
+     * @param resumed records of processed done by an earlier run of a resumed import
+     * @param total records of the phase, -1 if unknown
+     * @param elapsedMillis time spent in the phase
+     */
+    ImportProgress(final Phase phase, final int processed, final int resumed, final int total,
+        final long elapsedMillis) {
+        this.phase = phase;
+        this.processed = processed;
+        this.resumed = resumed;
+        this.total = total;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return The phase, <code>null</code> before the job starts.
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The processed.
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return The records of processed done by an earlier run of a resumed import.
+     */
+    public int getResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return The total, -1 if the phase does not report record counts.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return The elapsedMillis.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return records processed per second in the current phase, by this run
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : (processed - resumed) * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImportProgress [phase=%s, processed=%d, resumed=%d, total=%d, elapsedMillis=%d]", phase,
+            processed, resumed, total, elapsedMillis);
+    }
+}
@@ -1,6 +1,7 @@
 package com.clarecontrols.equator.solstice.api.beta;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -25,49 +26,82 @@ final class JCFNode {
      * @throws JSONException json exception
      */
     static void exportCFNodes(final Set<CFNode> cfNodes, final JSONObject jsonObject) throws JSONException {
+        // children are exported with their parents, as they always were by this method
+        final JExportOptions options = new JExportOptions();
+        options.setFollowChildren(true);
+        exportCFNodes(cfNodes, jsonObject, options);
+    }
+
+    /**
+     * @param cfNodes CFNodes to export
+     * @param jsonObject json to export to
+     * @param options export projection options
+     * @throws JSONException json exception
+     */
+    static void exportCFNodes(final Set<CFNode> cfNodes, final JSONObject jsonObject, final JExportOptions options)
+        throws JSONException {
         Objects.requireNonNull(cfNodes);
         Objects.requireNonNull(jsonObject);
+        Objects.requireNonNull(options);
 
-        // keys [cfnodes, cfnode_cfnode]
+        // keys [cfnodes, cfnode_cfnode | cfnode_cfnode_columns]
         JUtils.getArray(JKey.CFNODES, jsonObject);
-        JUtils.getArray(JKey.CFNODE_CFNODE, jsonObject);
         final Set<CFNode> exportedNodes = new HashSet<CFNode>();
+        final JEdgeList edges = new JEdgeList();
+        final JDictionary dictionary = options.isDictionaryEncoded() ? JDictionary.of(jsonObject) : null;
         for (final CFNode cfNode : cfNodes) {
-            JCFNode.exportCFNode(exportedNodes, cfNode, jsonObject);
+            JCFNode.exportCFNode(exportedNodes, edges, cfNode, jsonObject, options, dictionary);
+        }
+        if (options.isColumnarEdges()) {
+            edges.writeColumns(jsonObject, CFNODE_CFNODE_COLUMNS);
+        } else {
+            edges.writePairs(jsonObject, JKey.CFNODE_CFNODE);
         }
     }
 
     /**
      * @param exportedNodes exported nodes
+     * @param edges exported parent/child links
      * @param cfNode CFNode to export
      * @param jsonObject json object to export to
+     * @param options export projection options
+     * @param dictionary dictionary of the json, <code>null</code> when lookups are written inline
      * @throws JSONException json exception
      */
-    private static void exportCFNode(final Set<CFNode> exportedNodes, final CFNode cfNode, final JSONObject jsonObject)
+    private static void exportCFNode(final Set<CFNode> exportedNodes, final JEdgeList edges, final CFNode cfNode,
+        final JSONObject jsonObject, final JExportOptions options, final JDictionary dictionary)
         throws JSONException {
         if (!exportedNodes.contains(cfNode)) {
             final JSONObject json = new JSONObject();
             // cfNode[ id, name, notes, uid ]
             json.put(JKey.ID, cfNode.getId());
-            json.put(JKey.NAME, cfNode.getName());
-            json.put(JKey.NOTES, cfNode.getNotes());
-            json.put(JKey.UID, cfNode.getUid());
+            if (options.includes(JKey.NAME)) {
+                json.put(JKey.NAME, cfNode.getName());
+            }
+            if (options.includes(JKey.NOTES)) {
+                json.put(JKey.NOTES, cfNode.getNotes());
+            }
+            if (options.includes(JKey.UID)) {
+                json.put(JKey.UID, cfNode.getUid());
+            }
 
-            final JSONArray jsonProperties = JUtils.getArray(JKey.PROPERTIES, json);
-            for (final Map.Entry<String, Serializable> property : cfNode.getProperties().entrySet()) {
-                exportProperty(property, jsonProperties);
+            if (options.includes(JKey.PROPERTIES)) {
+                final JSONArray jsonProperties = JUtils.getArray(JKey.PROPERTIES, json);
+                for (final Map.Entry<String, Serializable> property : cfNode.getProperties().entrySet()) {
+                    exportProperty(property, jsonProperties);
+                }
             }
 
-            exportLookup(cfNode, json);
+            exportLookup(cfNode, json, options, dictionary);
             JUtils.getArray(JKey.CFNODES, jsonObject).put(json);
             exportedNodes.add(cfNode);
 
             // cfnode_cfnode
             for (final CFNode child : cfNode.getChildren()) {
-                final JSONArray parentChild = new JSONArray();
-                parentChild.put(cfNode.getId()).put(child.getId());
-                JUtils.getArray(JKey.CFNODE_CFNODE, jsonObject).put(parentChild);
-                exportCFNode(exportedNodes, child, jsonObject);
+                edges.add(cfNode.getId(), child.getId());
+                if (options.isFollowChildren()) {
+                    exportCFNode(exportedNodes, edges, child, jsonObject, options, dictionary);
+                }
             }
         }
     }
@@ -109,14 +143,21 @@ final class JCFNode {
     /**
      * @param cfNode CFNode to export
      * @param json json to export to
+     * @param options export projection options
+     * @param dictionary dictionary of the json, <code>null</code> when lookups are written inline
      * @throws JSONException json exception
      */
-    private static void exportLookup(final CFNode cfNode, final JSONObject json) throws JSONException {
-        // keys [ _providerName_, _providerTypeName_, _projectVersionId_ ]
+    private static void exportLookup(final CFNode cfNode, final JSONObject json, final JExportOptions options,
+        final JDictionary dictionary) throws JSONException {
+        // keys [ _providerName_, _providerTypeName_ | _providerRef_, _projectVersionId_ ]
         final CFProvider provider = cfNode.getProvider();
-        if (provider != null) {
-            json.put(JKey._PROVIDER_NAME_, provider.getName());
-            json.put(JKey._PROVIDER_TYPE_NAME_, provider.getProviderType().name());
+        if (provider != null && options.includes(JKey._PROVIDER_NAME_)) {
+            if (dictionary != null) {
+                json.put(JDictionary._PROVIDER_REF_, dictionary.indexOf(provider));
+            } else {
+                json.put(JKey._PROVIDER_NAME_, provider.getName());
+                json.put(JKey._PROVIDER_TYPE_NAME_, provider.getProviderType().name());
+            }
         }
         if (cfNode.getProjectVersion() != null) {
             json.put(JKey._PROJECT_VERSION_ID_, cfNode.getProjectVersion().getId());
@@ -132,32 +173,107 @@ final class JCFNode {
         Objects.requireNonNull(manager);
         Objects.requireNonNull(jsonObject);
 
+        manager.getIdCFNodeMap().clear();
+        importCFNodes(manager, jsonObject, 0, Integer.MAX_VALUE);
+        linkCFNodes(manager, jsonObject, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param manager import manager
+     * @param jsonObject json to import CFNodes
+     * @param fromIndex index of the first CFNode to import
+     * @param maxCount maximum number of CFNodes to import
+     * @return index of the next CFNode to import
+     * @throws JSONException json exception
+     */
+    static int importCFNodes(final ImportManager manager, final JSONObject jsonObject, final int fromIndex,
+        final int maxCount) throws JSONException {
+        final JSONArray cfNodes = jsonObject.optJSONArray(JKey.CFNODES);
+        if (cfNodes == null) {
+            return 0;
+        }
+        final JDictionary dictionary = manager.getDictionary(jsonObject);
+        final int toIndex = (int) Math.min((long) fromIndex + maxCount, cfNodes.length());
+        for (int index = fromIndex; index < toIndex; index++) {
+            importCFNode(manager, dictionary, cfNodes.getJSONObject(index));
+            manager.recordProcessed();
+        }
+        return toIndex;
+    }
+
+    /**
+     * Link imported CFNodes to their parents.
+     * @param manager import manager
+     * @param jsonObject json to import CFNodes
+     * @param fromIndex index of the first link
+     * @param maxCount maximum number of links
+     * @return index of the next link
+     * @throws JSONException json exception
+     */
+    static int linkCFNodes(final ImportManager manager, final JSONObject jsonObject, final int fromIndex,
+        final int maxCount) throws JSONException {
+        final Map<Integer, CFNode> idCFNodeMap = manager.getIdCFNodeMap();
+        // import cfnode_cfnode
+        final JEdgeList edges = manager.getEdges(jsonObject, JKey.CFNODE_CFNODE, CFNODE_CFNODE_COLUMNS);
+        final BitSet cycles = edges.findCycles();
+        final int toIndex = (int) Math.min((long) fromIndex + maxCount, edges.size());
+        for (int index = fromIndex; index < toIndex; index++) {
+            final int parentId = edges.getParent(index);
+            final int childId = edges.getChild(index);
+            final CFNode parent = idCFNodeMap.get(parentId);
+            final CFNode child = idCFNodeMap.get(childId);
+            if (parent == null || child == null) {
+                manager.addDanglingEdgeError(JKey.CFNODE_CFNODE, parentId, childId);
+            } else if (cycles.get(index)) {
+                manager.addCyclicEdgeError(JKey.CFNODE_CFNODE, parentId, childId);
+            } else if (!edges.isSuperseded(index)) {
+                // a superseded link is skipped: a later link of the child wins, as the child has a single parent
+                child.setParent(parent);
+            }
+        }
+        return toIndex;
+    }
+
+    /**
+     * Resolve the provider of every CFNode and check cfnode_cfnode without creating CFNodes. Every payload CFNode id
+     * is mapped to one transient placeholder CFNode, so that later references can be checked against the payload.
+     * @param manager import manager
+     * @param jsonObject json to validate
+     * @throws JSONException json exception
+     */
+    static void validateCFNodes(final ImportManager manager, final JSONObject jsonObject) throws JSONException {
+        Objects.requireNonNull(manager);
+        Objects.requireNonNull(jsonObject);
+
         final Map<Integer, CFNode> idCFNodeMap = manager.getIdCFNodeMap();
         idCFNodeMap.clear();
+        final CFNode placeholder = new CFNode();
+        final JDictionary dictionary = manager.getDictionary(jsonObject);
         final JSONArray cfNodes = jsonObject.optJSONArray(JKey.CFNODES);
         if (cfNodes != null) {
             for (int index = 0, size = cfNodes.length(); index < size; index++) {
-                importCFNode(manager, cfNodes.getJSONObject(index));
-            }
-        }
-        // import cfnode_cfnode
-        final JSONArray nodeNode = jsonObject.optJSONArray(JKey.CFNODE_CFNODE);
-        if (nodeNode != null) {
-            for (int index = 0, size = nodeNode.length(); index < size; index++) {
-                final JSONArray parentChild = nodeNode.getJSONArray(index);
-                final CFNode parent = idCFNodeMap.get(parentChild.getInt(0));
-                final CFNode child = idCFNodeMap.get(parentChild.getInt(1));
-                child.setParent(parent);
+                final JSONObject json = cfNodes.getJSONObject(index);
+                idCFNodeMap.put(json.getInt(JKey.ID), placeholder);
+                if (json.has(JDictionary._PROVIDER_REF_)) {
+                    dictionary.getProvider(manager, json.getInt(JDictionary._PROVIDER_REF_));
+                } else if (json.has(JKey._PROVIDER_NAME_)) {
+                    manager.lookupCFProvider(json.optString(JKey._PROVIDER_NAME_, null), json.optString(
+                        JKey._PROVIDER_TYPE_NAME_, null));
+                }
             }
         }
+        manager.validateEdges(JKey.CFNODE_CFNODE, JEdgeList.read(jsonObject, JKey.CFNODE_CFNODE,
+            CFNODE_CFNODE_COLUMNS), idCFNodeMap.keySet());
     }
 
     /**
      * @param manager import manager
+     * @param dictionary lookup dictionary
      * @param json json to import cfNode
      * @throws JSONException json exception
      */
-    private static void importCFNode(final ImportManager manager, final JSONObject json) throws JSONException {
+    private static void importCFNode(final ImportManager manager, final JDictionary dictionary,
+        final JSONObject json) throws JSONException {
         final int cfNodeId = json.getInt(JKey.ID);
         if (!manager.getIdCFNodeMap().containsKey(cfNodeId)) {
             final CFNode cfNode = new CFNode();
@@ -167,24 +283,32 @@ final class JCFNode {
             if (json.has(JKey._PROJECT_VERSION_ID_)) {
                 cfNode.setProjectVersion(manager.getVersion());
             }
-            if (json.has(JKey._PROVIDER_NAME_)) {
+            if (json.has(JDictionary._PROVIDER_REF_)) {
+                cfNode.setProvider(dictionary.getProvider(manager, json.getInt(JDictionary._PROVIDER_REF_)));
+            } else if (json.has(JKey._PROVIDER_NAME_)) {
                 cfNode.setProvider(manager.lookupCFProvider(json.optString(JKey._PROVIDER_NAME_, null), json.optString(
                     JKey._PROVIDER_TYPE_NAME_, null)));
             }
-            importProperties(cfNode, json.getJSONArray(JKey.PROPERTIES));
+            final JSONArray jsonProperties = json.optJSONArray(JKey.PROPERTIES);
+            if (jsonProperties != null) {
+                importProperties(manager, cfNode, jsonProperties);
+            }
             manager.getIdCFNodeMap().put(cfNodeId, cfNode);
+            manager.created(cfNodeId, cfNode);
         }
     }
 
     /**
+     * @param manager import manager
      * @param cfNode CFNode to import properties to
      * @param optJSONArray json array contains CFNode properties
      * @throws JSONException json exception
      */
-    private static void importProperties(final CFNode cfNode, final JSONArray jsonArray) throws JSONException {
+    private static void importProperties(final ImportManager manager, final CFNode cfNode, final JSONArray jsonArray)
+        throws JSONException {
         for (int index = 0, size = jsonArray.length(); index < size; index++) {
             final JSONObject json = jsonArray.getJSONObject(index);
-            final String key = json.optString(JKey.KEY, null);
+            final String key = manager.dedupName(json.optString(JKey.KEY, null));
             final String value = json.optString(JKey.VALUE, null);
             final String type = json.optString(JKey.TYPE, null);
             if (TYPE_FLOAT.equals(type)) {
@@ -194,7 +318,7 @@ final class JCFNode {
             } else if (TYPE_BOOLEAN.equals(type)) {
                 cfNode.getProperties().put(key, Boolean.parseBoolean(value));
             } else if (TYPE_STRING.equals(type)) {
-                cfNode.getProperties().put(key, value);
+                cfNode.getProperties().put(key, manager.dedup(value));
             } else if (TYPE_LONG.equals(type)) {
                 cfNode.getProperties().put(key, Long.parseLong(value));
             } else if (TYPE_INT.equals(type)) {
@@ -222,4 +346,6 @@ final class JCFNode {
     private static final String TYPE_INT = "int";
     private static final String TYPE_STRING_ARRAY = "string[]";
 
+    static final String CFNODE_CFNODE_COLUMNS = "cfnode_cfnode_columns";
+
 }
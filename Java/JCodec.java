@@ -0,0 +1,239 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * JCodec represents a streaming compression codec of import/export payloads.
+ * <p>
+ * The codec of a payload is negotiated by its magic bytes; a payload without known magic is read as plain json.
+ * {@link #GZIP} and {@link #DEFLATE} are built in. Other codecs, e.g. zstd or LZ4 backed by a pure-Java library, are
+ * plugged in with {@link #register(JCodec)}.
+ */
+abstract class JCodec {
+
+    /** Plain json, no compression. */
+    static final JCodec NONE = new JCodec("none", new byte[0]) {
+        @Override
+        OutputStream compress(final OutputStream out, final int level, final int bufferSize) {
+            return new BufferedOutputStream(out, bufferSize);
+        }
+
+        @Override
+        InputStream decompress(final InputStream in, final int bufferSize) {
+            return in;
+        }
+    };
+
+    /** Gzip (RFC 1952). */
+    static final JCodec GZIP = new JCodec("gzip", new byte[] {(byte) 0x1f, (byte) 0x8b }) {
+        @Override
+        OutputStream compress(final OutputStream out, final int level, final int bufferSize) throws IOException {
+            return new GZIPOutputStream(out, bufferSize) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(final InputStream in, final int bufferSize) throws IOException {
+            return new GZIPInputStream(in, bufferSize);
+        }
+    };
+
+    /** Zlib (RFC 1950); the magic matches the default window size. */
+    static final JCodec DEFLATE = new JCodec("deflate", new byte[] {(byte) 0x78 }) {
+        @Override
+        OutputStream compress(final OutputStream out, final int level, final int bufferSize) {
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(final InputStream in, final int bufferSize) {
+            final Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private static final List<JCodec> CODECS = new CopyOnWriteArrayList<>(Arrays.asList(GZIP, DEFLATE));
+
+    private final String name;
+    private final byte[] magic;
+
+    /**
+     * @param name codec name
+     * @param magic leading bytes of a compressed stream
+     */
+    JCodec(final String name, final byte[] magic) {
+        this.name = Objects.requireNonNull(name);
+        this.magic = magic.clone();
+        if (magic.length > MAX_MAGIC_LENGTH) {
+            throw new IllegalArgumentException(String.format(ERROR_MAGIC_TOO_LONG, name, magic.length));
+        }
+    }
+
+    /**
+     * @param out stream to write compressed data to
+     * @param level compression level, codec specific
+     * @param bufferSize buffer size in bytes
+     * @return stream compressing to out; closing it finishes the compressed stream and closes out
+     * @throws IOException I/O exception
+     */
+    abstract OutputStream compress(OutputStream out, int level, int bufferSize) throws IOException;
+
+    /**
+     * @param in stream to read compressed data from
+     * @param bufferSize buffer size in bytes
+     * @return stream of decompressed data
+     * @throws IOException I/O exception
+     */
+    abstract InputStream decompress(InputStream in, int bufferSize) throws IOException;
+
+    /**
+     * @return The name.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param codec codec to negotiate on read, in addition to the built-in ones
+     */
+    static void register(final JCodec codec) {
+        Objects.requireNonNull(codec);
+        if (codec.magic.length == 0) {
+            throw new IllegalArgumentException(String.format(ERROR_MAGIC_TOO_LONG, codec.name, 0));
+        }
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * @param in buffered stream, positioned at the start of the payload
+     * @return codec matching the magic bytes, {@link #NONE} if none matches
+     * @throws IOException I/O exception
+     */
+    static JCodec detect(final BufferedInputStream in) throws IOException {
+        final byte[] head = new byte[MAX_MAGIC_LENGTH];
+        in.mark(MAX_MAGIC_LENGTH);
+        int length = 0;
+        for (int read; length < head.length && (read = in.read(head, length, head.length - length)) > 0;) {
+            length += read;
+        }
+        in.reset();
+        for (final JCodec codec : CODECS) {
+            if (codec.magic.length <= length
+                && Arrays.equals(codec.magic, Arrays.copyOf(head, codec.magic.length))) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Stream a json document to out, without building the text in memory. out is not closed.
+     * @param json json to write
+     * @param out stream to write to
+     * @param codec compression codec
+     * @param level compression level, codec specific
+     * @param bufferSize buffer size in bytes
+     * @throws IOException I/O exception
+     * @throws JSONException json exception
+     */
+    static void write(final JSONObject json, final OutputStream out, final JCodec codec, final int level,
+        final int bufferSize) throws IOException, JSONException {
+        final OutputStream shielded = new FilterOutputStream(out) {
+            @Override
+            public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (Writer writer = new OutputStreamWriter(codec.compress(shielded, level, bufferSize),
+            StandardCharsets.UTF_8)) {
+            json.write(writer);
+        }
+    }
+
+    /**
+     * Stream a json document from in, negotiating the codec by its magic bytes. in is not closed.
+     * @param in stream to read from
+     * @param bufferSize buffer size in bytes
+     * @return json document
+     * @throws IOException I/O exception
+     * @throws JSONException json exception
+     */
+    static JSONObject read(final InputStream in, final int bufferSize) throws IOException, JSONException {
+        final InputStream shielded = new FilterInputStream(in) {
+            @Override
+            public void close() {
+                // in is closed by the caller
+            }
+        };
+        final BufferedInputStream buffered = new BufferedInputStream(shielded, bufferSize);
+        final JCodec codec = detect(buffered);
+        // closing the decompressing stream releases the native memory of its inflater, if any
+        try (InputStream decompressed = codec.decompress(buffered, bufferSize)) {
+            return new JSONObject(new JSONTokener(new InputStreamReader(decompressed, StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /** Default buffer size in bytes. */
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_MAGIC_LENGTH = 8;
+
+    private static final String ERROR_MAGIC_TOO_LONG = //
+        "Invalid codec magic [name=\"%s\", length=%d]";
+}
@@ -1,5 +1,7 @@
 package com.clarecontrols.equator.solstice.api.beta;
 
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -23,62 +25,119 @@ final class JDeviceItem {
      * @throws JSONException json exception
      */
     static void exportDeviceItems(final Set<DeviceItem> devices, final JSONObject jsonObject) throws JSONException {
+        // children are linked, not exported, as they always were by this method
+        exportDeviceItems(devices, jsonObject, new JExportOptions());
+    }
+
+    /**
+     * @param devices devices to export
+     * @param jsonObject json to export to
+     * @param options export projection/filter options
+     * @throws JSONException json exception
+     */
+    static void exportDeviceItems(final Set<DeviceItem> devices, final JSONObject jsonObject,
+        final JExportOptions options) throws JSONException {
         Objects.requireNonNull(devices);
         Objects.requireNonNull(jsonObject);
+        Objects.requireNonNull(options);
 
-        // keys [ devices, device_device ]
+        // keys [ devices, device_device | device_device_columns ]
         JUtils.getArray(JKey.DEVICES, jsonObject);
-        JUtils.getArray(JKey.DEVICE_DEVICE, jsonObject);
+        final Set<DeviceItem> exportedDevices = new HashSet<>();
+        final JEdgeList edges = new JEdgeList();
+        final JDictionary dictionary = options.isDictionaryEncoded() ? JDictionary.of(jsonObject) : null;
         for (final DeviceItem device : devices) {
-            exportDeviceItem(device, jsonObject);
+            if (options.accept(device)) {
+                exportDeviceItem(exportedDevices, edges, device, jsonObject, options, dictionary);
+            }
+        }
+        if (options.isColumnarEdges()) {
+            edges.writeColumns(jsonObject, DEVICE_DEVICE_COLUMNS);
+        } else {
+            edges.writePairs(jsonObject, JKey.DEVICE_DEVICE);
         }
     }
 
     /**
+     * @param exportedDevices exported devices
+     * @param edges exported parent/child links
      * @param device device item to export
      * @param jsonObject json to export to
+     * @param options export projection/filter options
+     * @param dictionary dictionary of the json, <code>null</code> when lookups are written inline
      * @throws JSONException json exception
      */
-    private static void exportDeviceItem(final DeviceItem device, final JSONObject jsonObject) throws JSONException {
+    private static void exportDeviceItem(final Set<DeviceItem> exportedDevices, final JEdgeList edges,
+        final DeviceItem device, final JSONObject jsonObject, final JExportOptions options,
+        final JDictionary dictionary) throws JSONException {
+        if (!exportedDevices.add(device)) {
+            return;
+        }
         final JSONObject json = new JSONObject();
         // device[ id, name, notes, uid, lastUpdate, vendor, version, modelNumber, troubleshooting, deviceItemsProps ]
         // device[ protocolVerRange, ~template, ~hidden, ~equipment, ~certified ]
-        json.put(JKey.CERTIFIED, device.isCertified());
-        json.put(JKey.DEVICE_ITEMS_PROPS, device.getDeviceItemsProps());
-        json.put(JKey.EQUIPMENT, device.isEquipment());
-        json.put(JKey.HIDDEN, device.isHidden());
         json.put(JKey.ID, device.getId());
-        json.put(JKey.MODEL_NUMBER, device.getModelNumber());
-        json.put(JKey.NAME, device.getName());
-        json.put(JKey.NOTES, device.getNotes());
-        json.put(JKey.PROTOCOL_VER_RANGE, device.getProtocolVerRange());
-        json.put(JKey.TEMPLATE, device.isTemplate());
-        json.put(JKey.TROUBLESHOOTING, device.getTroubleshooting());
-        json.put(JKey.UID, device.getUid());
-        json.put(JKey.VENDOR, device.getVendor());
-        json.put(JKey.VERSION, device.getVersion());
-        JUtils.putTimestamp(JKey.LAST_UPDATE, device.getLastUpdate(), json);
-
-        exportLookup(device, json);
+        putOpt(JKey.CERTIFIED, device.isCertified(), json, options);
+        putOpt(JKey.DEVICE_ITEMS_PROPS, device.getDeviceItemsProps(), json, options);
+        putOpt(JKey.EQUIPMENT, device.isEquipment(), json, options);
+        putOpt(JKey.HIDDEN, device.isHidden(), json, options);
+        putOpt(JKey.MODEL_NUMBER, device.getModelNumber(), json, options);
+        putOpt(JKey.NAME, device.getName(), json, options);
+        putOpt(JKey.NOTES, device.getNotes(), json, options);
+        putOpt(JKey.PROTOCOL_VER_RANGE, device.getProtocolVerRange(), json, options);
+        putOpt(JKey.TEMPLATE, device.isTemplate(), json, options);
+        putOpt(JKey.TROUBLESHOOTING, device.getTroubleshooting(), json, options);
+        putOpt(JKey.UID, device.getUid(), json, options);
+        putOpt(JKey.VENDOR, device.getVendor(), json, options);
+        putOpt(JKey.VERSION, device.getVersion(), json, options);
+        if (options.includes(JKey.LAST_UPDATE)) {
+            JUtils.putTimestamp(JKey.LAST_UPDATE, device.getLastUpdate(), json);
+        }
+
+        exportLookup(device, json, options, dictionary);
         JUtils.getArray(JKey.DEVICES, jsonObject).put(json);
 
         // device_device
         for (final DeviceItem child : device.getChildren()) {
-            final JSONArray parentChild = new JSONArray();
-            parentChild.put(device.getId()).put(child.getId());
-            JUtils.getArray(JKey.DEVICE_DEVICE, jsonObject).put(parentChild);
+            if (options.accept(child)) {
+                edges.add(device.getId(), child.getId());
+                if (options.isFollowChildren()) {
+                    exportDeviceItem(exportedDevices, edges, child, jsonObject, options, dictionary);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key json key
+     * @param value value to export
+     * @param json json to export to
+     * @param options export projection/filter options
+     * @throws JSONException json exception
+     */
+    private static void putOpt(final String key, final Object value, final JSONObject json,
+        final JExportOptions options) throws JSONException {
+        if (options.includes(key)) {
+            json.put(key, value);
         }
     }
 
     /**
      * @param device device item to export
      * @param json json to export to
+     * @param options export projection/filter options
+     * @param dictionary dictionary of the json, <code>null</code> when lookups are written inline
      * @throws JSONException json exception
      */
-    private static void exportLookup(final DeviceItem device, final JSONObject json) throws JSONException {
+    private static void exportLookup(final DeviceItem device, final JSONObject json, final JExportOptions options,
+        final JDictionary dictionary) throws JSONException {
+        if (dictionary != null) {
+            exportLookupRefs(device, json, options, dictionary);
+            return;
+        }
         // lookup [ _masterTemplateName_, _masterTemplateVendor_, _masterTemplateModelNumber_, _masterTemplateVersion_ ]
         final DeviceItem template = device.getMasterTemplate();
-        if (template != null) {
+        if (template != null && options.includes(JKey._MASTER_TEMPLATE_NAME_)) {
             json.put(JKey._MASTER_TEMPLATE_NAME_, template.getName());
             json.put(JKey._MASTER_TEMPLATE_VENDOR_, template.getVendor());
             json.put(JKey._MASTER_TEMPLATE_MODEL_NUMBER_, template.getModelNumber());
@@ -86,32 +145,77 @@ final class JDeviceItem {
         }
 
         // lookup [ _zoneId_, _lastUpdateUserEmail_ ]
-        if (device.getLastUpdateUser() != null) {
+        if (device.getLastUpdateUser() != null && options.includes(JKey._LAST_UPDATE_USER_EMAIL_)) {
             json.put(JKey._LAST_UPDATE_USER_EMAIL_, device.getLastUpdateUser().getEmail());
         }
-        if (device.getZone() != null) {
+        if (device.getZone() != null && options.includes(JKey._ZONE_ID_)) {
             json.put(JKey._ZONE_ID_, device.getZone().getId());
         }
 
         // lookup [ _deviceTypes_, _deviceTypeName_, _deviceCategoryName_ ]
-        final JSONArray jsonDeviceTypes = JUtils.getArray(JKey._DEVICE_TYPES_, json);
-        for (final DeviceType deviceType : device.getDeviceTypes()) {
-            final JSONObject jsonDeviceType = new JSONObject();
-            jsonDeviceType.put(JKey._DEVICE_TYPE_NAME_, deviceType.getName());
-            if (deviceType.getDeviceCategory() != null) {
-                jsonDeviceType.put(JKey._DEVICE_CATEGORY_NAME_, deviceType.getDeviceCategory().getName());
+        if (options.includes(JKey._DEVICE_TYPES_)) {
+            final JSONArray jsonDeviceTypes = JUtils.getArray(JKey._DEVICE_TYPES_, json);
+            for (final DeviceType deviceType : device.getDeviceTypes()) {
+                final JSONObject jsonDeviceType = new JSONObject();
+                jsonDeviceType.put(JKey._DEVICE_TYPE_NAME_, deviceType.getName());
+                if (deviceType.getDeviceCategory() != null) {
+                    jsonDeviceType.put(JKey._DEVICE_CATEGORY_NAME_, deviceType.getDeviceCategory().getName());
+                }
+                jsonDeviceTypes.put(jsonDeviceType);
             }
-            jsonDeviceTypes.put(jsonDeviceType);
         }
 
         // lookup [ _protocolAdapterName_, _protocolAdapterVersion_ ]
-        json.put(JKey._PROTOCOL_ADAPTER_NAME_, device.getProtocolAdapter().getName());
-        json.put(JKey._PROTOCOL_ADAPTER_VERSION_, device.getProtocolAdapter().getVersion());
+        if (options.includes(JKey._PROTOCOL_ADAPTER_NAME_)) {
+            json.put(JKey._PROTOCOL_ADAPTER_NAME_, device.getProtocolAdapter().getName());
+            json.put(JKey._PROTOCOL_ADAPTER_VERSION_, device.getProtocolAdapter().getVersion());
+        }
 
         // lookup [ _deviceClasses_ ]
-        final JSONArray jsonDeviceClasses = JUtils.getArray(JKey._DEVICE_CLASSES_, json);
-        for (final DeviceClass deviceClass : device.getDeviceClasses()) {
-            jsonDeviceClasses.put(deviceClass.getName());
+        if (options.includes(JKey._DEVICE_CLASSES_)) {
+            final JSONArray jsonDeviceClasses = JUtils.getArray(JKey._DEVICE_CLASSES_, json);
+            for (final DeviceClass deviceClass : device.getDeviceClasses()) {
+                jsonDeviceClasses.put(deviceClass.getName());
+            }
+        }
+    }
+
+    /**
+     * @param device device item to export
+     * @param json json to export to
+     * @param options export projection/filter options
+     * @param dictionary export dictionary
+     * @throws JSONException json exception
+     */
+    private static void exportLookupRefs(final DeviceItem device, final JSONObject json,
+        final JExportOptions options, final JDictionary dictionary) throws JSONException {
+        // lookup [ _masterTemplateRef_, _lastUpdateUserRef_, _zoneId_ ]
+        final DeviceItem template = device.getMasterTemplate();
+        if (template != null && options.includes(JKey._MASTER_TEMPLATE_NAME_)) {
+            json.put(JDictionary._MASTER_TEMPLATE_REF_, dictionary.indexOfTemplate(template));
+        }
+        if (device.getLastUpdateUser() != null && options.includes(JKey._LAST_UPDATE_USER_EMAIL_)) {
+            json.put(JDictionary._LAST_UPDATE_USER_REF_, dictionary.indexOf(device.getLastUpdateUser()));
+        }
+        if (device.getZone() != null && options.includes(JKey._ZONE_ID_)) {
+            json.put(JKey._ZONE_ID_, device.getZone().getId());
+        }
+
+        // lookup [ _deviceTypeRefs_, _protocolAdapterRef_, _deviceClassRefs_ ]
+        if (options.includes(JKey._DEVICE_TYPES_)) {
+            final JSONArray jsonDeviceTypes = JUtils.getArray(JDictionary._DEVICE_TYPE_REFS_, json);
+            for (final DeviceType deviceType : device.getDeviceTypes()) {
+                jsonDeviceTypes.put(dictionary.indexOf(deviceType));
+            }
+        }
+        if (options.includes(JKey._PROTOCOL_ADAPTER_NAME_)) {
+            json.put(JDictionary._PROTOCOL_ADAPTER_REF_, dictionary.indexOf(device.getProtocolAdapter()));
+        }
+        if (options.includes(JKey._DEVICE_CLASSES_)) {
+            final JSONArray jsonDeviceClasses = JUtils.getArray(JDictionary._DEVICE_CLASS_REFS_, json);
+            for (final DeviceClass deviceClass : device.getDeviceClasses()) {
+                jsonDeviceClasses.put(dictionary.indexOf(deviceClass));
+            }
         }
     }
 
@@ -124,68 +228,203 @@ final class JDeviceItem {
         Objects.requireNonNull(manager);
         Objects.requireNonNull(jsonObject);
 
+        manager.getIdDeviceMap().clear();
+        importDeviceItems(manager, jsonObject, 0, Integer.MAX_VALUE);
+        linkDeviceItems(manager, jsonObject, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param manager import manager
+     * @param jsonObject json object to import
+     * @param fromIndex index of the first device to import
+     * @param maxCount maximum number of devices to import
+     * @return index of the next device to import
+     * @throws JSONException json exception
+     */
+    static int importDeviceItems(final ImportManager manager, final JSONObject jsonObject, final int fromIndex,
+        final int maxCount) throws JSONException {
+        final JSONArray devices = jsonObject.optJSONArray(JKey.DEVICES);
+        if (devices == null) {
+            return 0;
+        }
+        final JDictionary dictionary = manager.getDictionary(jsonObject);
+        final int toIndex = (int) Math.min((long) fromIndex + maxCount, devices.length());
+        for (int index = fromIndex; index < toIndex; index++) {
+            importDeviceItem(manager, dictionary, devices.getJSONObject(index));
+            manager.recordProcessed();
+        }
+        return toIndex;
+    }
+
+    /**
+     * Link imported devices to their parents.
+     * @param manager import manager
+     * @param jsonObject json object to import
+     * @param fromIndex index of the first link
+     * @param maxCount maximum number of links
+     * @return index of the next link
+     * @throws JSONException json exception
+     */
+    static int linkDeviceItems(final ImportManager manager, final JSONObject jsonObject, final int fromIndex,
+        final int maxCount) throws JSONException {
+        final Map<Integer, DeviceItem> idDeviceMap = manager.getIdDeviceMap();
+        // import device_device
+        final JEdgeList edges = manager.getEdges(jsonObject, JKey.DEVICE_DEVICE, DEVICE_DEVICE_COLUMNS);
+        final BitSet cycles = edges.findCycles();
+        final int toIndex = (int) Math.min((long) fromIndex + maxCount, edges.size());
+        for (int index = fromIndex; index < toIndex; index++) {
+            final int parentId = edges.getParent(index);
+            final int childId = edges.getChild(index);
+            final DeviceItem parent = idDeviceMap.get(parentId);
+            final DeviceItem child = idDeviceMap.get(childId);
+            if (parent == null || child == null) {
+                manager.addDanglingEdgeError(JKey.DEVICE_DEVICE, parentId, childId);
+            } else if (cycles.get(index)) {
+                manager.addCyclicEdgeError(JKey.DEVICE_DEVICE, parentId, childId);
+            } else if (!edges.isSuperseded(index)) {
+                // a superseded link is skipped: a later link of the child wins, as the child has a single parent
+                // parent.getChildren().add(child); // this way will not work right.
+                child.setParent(parent);
+            }
+        }
+        return toIndex;
+    }
+
+    /**
+     * Resolve the lookups of every device and check device_device without creating devices. Every payload device id
+     * is mapped to one transient placeholder device, so that later references can be checked against the payload.
+     * @param manager import manager
+     * @param jsonObject json object to validate
+     * @param zoneIds payload zone ids
+     * @throws JSONException json exception
+     */
+    static void validateDeviceItems(final ImportManager manager, final JSONObject jsonObject,
+        final Set<Integer> zoneIds) throws JSONException {
+        Objects.requireNonNull(manager);
+        Objects.requireNonNull(jsonObject);
+
         final Map<Integer, DeviceItem> idDeviceMap = manager.getIdDeviceMap();
         idDeviceMap.clear();
+        final DeviceItem placeholder = new DeviceItem();
+        final JDictionary dictionary = manager.getDictionary(jsonObject);
         final JSONArray devices = jsonObject.optJSONArray(JKey.DEVICES);
         if (devices != null) {
             for (int index = 0, size = devices.length(); index < size; index++) {
-                importDeviceItem(manager, devices.getJSONObject(index));
+                final JSONObject json = devices.getJSONObject(index);
+                idDeviceMap.put(json.getInt(JKey.ID), placeholder);
+                validateLookup(manager, dictionary, json, zoneIds);
             }
         }
-        // import device_device
-        final JSONArray deviceDevices = jsonObject.optJSONArray(JKey.DEVICE_DEVICE);
-        if (deviceDevices != null) {
-            for (int index = 0, size = deviceDevices.length(); index < size; index++) {
-                final JSONArray parentChild = deviceDevices.getJSONArray(index);
-                final DeviceItem parent = idDeviceMap.get(parentChild.getInt(0));
-                final DeviceItem child = idDeviceMap.get(parentChild.getInt(1));
-                // parent.getChildren().add(child); // this way will not work right.
-                child.setParent(parent);
+        manager.validateEdges(JKey.DEVICE_DEVICE, JEdgeList.read(jsonObject, JKey.DEVICE_DEVICE,
+            DEVICE_DEVICE_COLUMNS), idDeviceMap.keySet());
+    }
+
+    /**
+     * @param manager import manager
+     * @param dictionary lookup dictionary
+     * @param json json to validate
+     * @param zoneIds payload zone ids
+     * @throws JSONException json exception
+     */
+    private static void validateLookup(final ImportManager manager, final JDictionary dictionary,
+        final JSONObject json, final Set<Integer> zoneIds) throws JSONException {
+        if (json.has(JKey._IMPORT_TEMPLATE_ID_)) {
+            manager.findEntity(DeviceItem.class, json.getInt(JKey._IMPORT_TEMPLATE_ID_));
+        } else if (json.has(JDictionary._MASTER_TEMPLATE_REF_)) {
+            dictionary.getTemplate(manager, json.getInt(JDictionary._MASTER_TEMPLATE_REF_));
+        } else if (json.has(JKey._MASTER_TEMPLATE_NAME_)) {
+            manager.lookupTemplate(json.optString(JKey._MASTER_TEMPLATE_NAME_, null), json.optString(
+                JKey._MASTER_TEMPLATE_VENDOR_, null), json.optString(JKey._MASTER_TEMPLATE_MODEL_NUMBER_, null), json
+                .optString(JKey._MASTER_TEMPLATE_VERSION_, null));
+        }
+        if (json.has(JKey._ZONE_ID_)) {
+            manager.validateZone(json.getInt(JKey._ZONE_ID_), zoneIds);
+        }
+        if (json.has(JDictionary._LAST_UPDATE_USER_REF_)) {
+            dictionary.getUser(manager, json.getInt(JDictionary._LAST_UPDATE_USER_REF_));
+        } else {
+            manager.lookupUser(json.optString(JKey._LAST_UPDATE_USER_EMAIL_, null));
+        }
+        final JSONArray jsonDeviceTypeRefs = json.optJSONArray(JDictionary._DEVICE_TYPE_REFS_);
+        if (jsonDeviceTypeRefs != null) {
+            for (int index = 0, size = jsonDeviceTypeRefs.length(); index < size; index++) {
+                dictionary.getDeviceType(manager, jsonDeviceTypeRefs.getInt(index));
+            }
+        }
+        final JSONArray jsonDeviceTypes = json.optJSONArray(JKey._DEVICE_TYPES_);
+        if (jsonDeviceTypes != null) {
+            for (int index = 0, size = jsonDeviceTypes.length(); index < size; index++) {
+                final JSONObject jsonDeviceType = jsonDeviceTypes.getJSONObject(index);
+                manager.lookupDeviceType(jsonDeviceType.optString(JKey._DEVICE_TYPE_NAME_, null), jsonDeviceType
+                    .optString(JKey._DEVICE_CATEGORY_NAME_, null));
+            }
+        }
+        if (json.has(JDictionary._PROTOCOL_ADAPTER_REF_)) {
+            dictionary.getProtocolAdapter(manager, json.getInt(JDictionary._PROTOCOL_ADAPTER_REF_));
+        } else {
+            manager.lookupProtocolAdapter(json.optString(JKey._PROTOCOL_ADAPTER_NAME_, null), json.optString(
+                JKey._PROTOCOL_ADAPTER_VERSION_, null));
+        }
+        final JSONArray jsonDeviceClassRefs = json.optJSONArray(JDictionary._DEVICE_CLASS_REFS_);
+        if (jsonDeviceClassRefs != null) {
+            for (int index = 0, size = jsonDeviceClassRefs.length(); index < size; index++) {
+                dictionary.getDeviceClass(manager, jsonDeviceClassRefs.getInt(index));
+            }
+        }
+        final JSONArray jsonDeviceClasses = json.optJSONArray(JKey._DEVICE_CLASSES_);
+        if (jsonDeviceClasses != null) {
+            for (int index = 0, size = jsonDeviceClasses.length(); index < size; index++) {
+                manager.lookupDeviceClass(jsonDeviceClasses.optString(index, null));
             }
         }
     }
 
     /**
      * @param manager import manager
+     * @param dictionary lookup dictionary
      * @param json json object to import from
      * @throws JSONException json exception
      */
-    private static void importDeviceItem(final ImportManager manager, final JSONObject json) throws JSONException {
+    private static void importDeviceItem(final ImportManager manager, final JDictionary dictionary,
+        final JSONObject json) throws JSONException {
         final Integer idDevice = json.getInt(JKey.ID);
         if (!manager.getIdDeviceMap().containsKey(idDevice)) {
             final DeviceItem device = new DeviceItem();
             device.setCertified(json.optBoolean(JKey.CERTIFIED));
-            device.setDeviceItemsProps(JUtils.optStringStringMap(JKey.DEVICE_ITEMS_PROPS, json));
+            device.setDeviceItemsProps(manager.dedup(JUtils.optStringStringMap(JKey.DEVICE_ITEMS_PROPS, json)));
             device.setEquipment(json.optBoolean(JKey.EQUIPMENT));
             device.setHidden(json.optBoolean(JKey.HIDDEN));
             device.setLastUpdate(JUtils.optTimestamp(JKey.LAST_UPDATE, json));
-            device.setModelNumber(json.optString(JKey.MODEL_NUMBER, null));
+            device.setModelNumber(manager.dedup(json.optString(JKey.MODEL_NUMBER, null)));
             device.setName(json.optString(JKey.NAME, null));
             device.setNotes(json.optString(JKey.NOTES, null));
-            device.setProtocolVerRange(json.optString(JKey.PROTOCOL_VER_RANGE, null));
+            device.setProtocolVerRange(manager.dedup(json.optString(JKey.PROTOCOL_VER_RANGE, null)));
             device.setTemplate(json.optBoolean(JKey.TEMPLATE));
             device.setTroubleshooting(json.optString(JKey.TROUBLESHOOTING, null));
             device.setUid(json.optString(JKey.UID, null));
-            device.setVendor(json.optString(JKey.VENDOR, null));
-            device.setVersion(json.optString(JKey.VERSION, null));
-            importLookup(device, manager, json);
+            device.setVendor(manager.dedup(json.optString(JKey.VENDOR, null)));
+            device.setVersion(manager.dedup(json.optString(JKey.VERSION, null)));
+            importLookup(device, manager, dictionary, json);
             device.setProjectVersion(manager.getVersion());
             manager.getIdDeviceMap().put(idDevice, device);
+            manager.created(idDevice, device);
         }
     }
 
     /**
      * @param device device to import
      * @param manager import manager
+     * @param dictionary lookup dictionary
      * @param json json to import from
-     * @param uidZoneMap zone-uid, zone map
      * @throws JSONException
      */
-    private static void importLookup(final DeviceItem device, final ImportManager manager, final JSONObject json)
-        throws JSONException {
+    private static void importLookup(final DeviceItem device, final ImportManager manager,
+        final JDictionary dictionary, final JSONObject json) throws JSONException {
         // key [ _importTemplateId_ ]
         if (json.has(JKey._IMPORT_TEMPLATE_ID_)) {
             device.setMasterTemplate(manager.findEntity(DeviceItem.class, json.getInt(JKey._IMPORT_TEMPLATE_ID_)));
+        } else if (json.has(JDictionary._MASTER_TEMPLATE_REF_)) {
+            device.setMasterTemplate(dictionary.getTemplate(manager, json.getInt(JDictionary._MASTER_TEMPLATE_REF_)));
         } else if (json.has(JKey._MASTER_TEMPLATE_NAME_)) {
             final String name = json.optString(JKey._MASTER_TEMPLATE_NAME_, null);
             final String vendor = json.optString(JKey._MASTER_TEMPLATE_VENDOR_, null);
@@ -194,9 +433,22 @@ final class JDeviceItem {
             device.setMasterTemplate(manager.lookupTemplate(name, vendor, modelNumber, version));
         }
         if (json.has(JKey._ZONE_ID_)) {
-            device.setZone(manager.getIdZoneMap().get(json.getInt(JKey._ZONE_ID_)));
+            device.setZone(manager.lookupZone(json.getInt(JKey._ZONE_ID_)));
+        }
+        if (json.has(JDictionary._LAST_UPDATE_USER_REF_)) {
+            device.setLastUpdateUser(dictionary.getUser(manager, json.getInt(JDictionary._LAST_UPDATE_USER_REF_)));
+        } else {
+            device.setLastUpdateUser(manager.lookupUser(json.optString(JKey._LAST_UPDATE_USER_EMAIL_, null)));
+        }
+        final JSONArray jsonDeviceTypeRefs = json.optJSONArray(JDictionary._DEVICE_TYPE_REFS_);
+        if (jsonDeviceTypeRefs != null) {
+            for (int index = 0, size = jsonDeviceTypeRefs.length(); index < size; index++) {
+                final DeviceType deviceType = dictionary.getDeviceType(manager, jsonDeviceTypeRefs.getInt(index));
+                if (deviceType != null) {
+                    device.getDeviceTypes().add(deviceType);
+                }
+            }
         }
-        device.setLastUpdateUser(manager.lookupUser(json.optString(JKey._LAST_UPDATE_USER_EMAIL_, null)));
         final JSONArray jsonDeviceTypes = json.optJSONArray(JKey._DEVICE_TYPES_);
         if (jsonDeviceTypes != null) {
             for (int index = 0, size = jsonDeviceTypes.length(); index < size; index++) {
@@ -209,8 +461,19 @@ final class JDeviceItem {
                 }
             }
         }
-        device.setProtocolAdapter(manager.lookupProtocolAdapter(json.optString(JKey._PROTOCOL_ADAPTER_NAME_, null),
-            json.optString(JKey._PROTOCOL_ADAPTER_VERSION_, null)));
+        if (json.has(JDictionary._PROTOCOL_ADAPTER_REF_)) {
+            device.setProtocolAdapter(dictionary.getProtocolAdapter(manager, json.getInt(
+                JDictionary._PROTOCOL_ADAPTER_REF_)));
+        } else {
+            device.setProtocolAdapter(manager.lookupProtocolAdapter(json.optString(JKey._PROTOCOL_ADAPTER_NAME_,
+                null), json.optString(JKey._PROTOCOL_ADAPTER_VERSION_, null)));
+        }
+        final JSONArray jsonDeviceClassRefs = json.optJSONArray(JDictionary._DEVICE_CLASS_REFS_);
+        if (jsonDeviceClassRefs != null) {
+            for (int index = 0, size = jsonDeviceClassRefs.length(); index < size; index++) {
+                device.getDeviceClasses().add(dictionary.getDeviceClass(manager, jsonDeviceClassRefs.getInt(index)));
+            }
+        }
         final JSONArray jsonDeviceClasses = json.optJSONArray(JKey._DEVICE_CLASSES_);
         if (jsonDeviceClasses != null) {
             for (int index = 0, size = jsonDeviceClasses.length(); index < size; index++) {
@@ -225,4 +488,6 @@ final class JDeviceItem {
     private JDeviceItem() {
         // Utility class
     }
+
+    static final String DEVICE_DEVICE_COLUMNS = "device_device_columns";
 }
@@ -0,0 +1,414 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.clarecontrols.equator.solstice.db.entities.DeviceClass;
+import com.clarecontrols.equator.solstice.db.entities.DeviceItem;
+import com.clarecontrols.equator.solstice.db.entities.DeviceType;
+import com.clarecontrols.equator.solstice.db.entities.ProtocolAdapter;
+import com.clarecontrols.equator.solstice.db.entities.roles.User;
+import com.clarecontrols.equator.solstice.db.entities.rules.CFProvider;
+
+/**
+ * JDictionary represents the dictionary of lookup references of an export.
+ * <p>
+ * Each distinct reference is written once in the <code>_dictionary_</code> section, with the same keys as the inline
+ * lookups, and records refer to it by index (<code>_protocolAdapterRef_</code>, <code>_deviceTypeRefs_</code>, ...).
+ * On import every entry is resolved once.
+ */
+final class JDictionary {
+
+    // export: section -> lookup key -> index
+    private final Map<String, Map<String, Integer>> sectionIndexes = new HashMap<>();
+    private final JSONObject jsonDictionary;
+
+    // import: index -> resolved entity
+    private final List<ProtocolAdapter> protocolAdapters = new ArrayList<>();
+    private final List<DeviceType> deviceTypes = new ArrayList<>();
+    private final List<DeviceClass> deviceClasses = new ArrayList<>();
+    private final List<DeviceItem> templates = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+    private final List<CFProvider> providers = new ArrayList<>();
+
+    /**
+     * @param jsonDictionary dictionary section of the json
+     */
+    private JDictionary(final JSONObject jsonDictionary) {
+        this.jsonDictionary = jsonDictionary;
+    }
+
+    /**
+     * Dictionary of an export document. The dictionary lives in the document: the device and CFNode exports into the
+     * same json share its entries, and nothing is kept once the export returns.
+     * @param jsonObject json to export to
+     * @return dictionary writing to the <code>_dictionary_</code> section of the json, created if missing
+     * @throws JSONException json exception
+     */
+    static JDictionary of(final JSONObject jsonObject) throws JSONException {
+        JSONObject json = jsonObject.optJSONObject(DICTIONARY);
+        if (json == null) {
+            json = new JSONObject();
+            jsonObject.put(DICTIONARY, json);
+        }
+        final JDictionary dictionary = new JDictionary(json);
+        dictionary.reindex(PROTOCOL_ADAPTERS, JKey._PROTOCOL_ADAPTER_NAME_, JKey._PROTOCOL_ADAPTER_VERSION_);
+        dictionary.reindex(DEVICE_TYPES, JKey._DEVICE_TYPE_NAME_, JKey._DEVICE_CATEGORY_NAME_);
+        dictionary.reindex(DEVICE_CLASSES, JKey.NAME);
+        dictionary.reindex(TEMPLATES, JKey._MASTER_TEMPLATE_NAME_, JKey._MASTER_TEMPLATE_VENDOR_,
+            JKey._MASTER_TEMPLATE_MODEL_NUMBER_, JKey._MASTER_TEMPLATE_VERSION_);
+        dictionary.reindex(USERS, JKey._LAST_UPDATE_USER_EMAIL_);
+        dictionary.reindex(PROVIDERS, JKey._PROVIDER_NAME_, JKey._PROVIDER_TYPE_NAME_);
+        return dictionary;
+    }
+
+    /**
+     * Index the entries already written to a section, by an earlier export into the same json.
+     * @param section dictionary section
+     * @param keys json keys of the lookup, in lookup key order
+     * @throws JSONException json exception
+     */
+    private void reindex(final String section, final String... keys) throws JSONException {
+        final JSONArray entries = jsonDictionary.optJSONArray(section);
+        if (entries == null) {
+            return;
+        }
+        final String[] values = new String[keys.length];
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = entry.optString(keys[i], null);
+            }
+            indexes(section).put(lookupKey(values), index);
+        }
+    }
+
+    /**
+     * @param protocolAdapter protocol adapter to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOf(final ProtocolAdapter protocolAdapter) throws JSONException {
+        final String key = lookupKey(protocolAdapter.getName(), protocolAdapter.getVersion());
+        Integer index = indexes(PROTOCOL_ADAPTERS).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey._PROTOCOL_ADAPTER_NAME_, protocolAdapter.getName());
+            json.put(JKey._PROTOCOL_ADAPTER_VERSION_, protocolAdapter.getVersion());
+            index = add(PROTOCOL_ADAPTERS, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param deviceType device type to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOf(final DeviceType deviceType) throws JSONException {
+        final String categoryName = deviceType.getDeviceCategory() == null ? null : deviceType.getDeviceCategory()
+            .getName();
+        final String key = lookupKey(deviceType.getName(), categoryName);
+        Integer index = indexes(DEVICE_TYPES).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey._DEVICE_TYPE_NAME_, deviceType.getName());
+            if (categoryName != null) {
+                json.put(JKey._DEVICE_CATEGORY_NAME_, categoryName);
+            }
+            index = add(DEVICE_TYPES, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param deviceClass device class to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOf(final DeviceClass deviceClass) throws JSONException {
+        final String key = lookupKey(deviceClass.getName());
+        Integer index = indexes(DEVICE_CLASSES).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey.NAME, deviceClass.getName());
+            index = add(DEVICE_CLASSES, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param template master template to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOfTemplate(final DeviceItem template) throws JSONException {
+        final String key = lookupKey(template.getName(), template.getVendor(), template.getModelNumber(), template
+            .getVersion());
+        Integer index = indexes(TEMPLATES).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey._MASTER_TEMPLATE_NAME_, template.getName());
+            json.put(JKey._MASTER_TEMPLATE_VENDOR_, template.getVendor());
+            json.put(JKey._MASTER_TEMPLATE_MODEL_NUMBER_, template.getModelNumber());
+            json.put(JKey._MASTER_TEMPLATE_VERSION_, template.getVersion());
+            index = add(TEMPLATES, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param user user to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOf(final User user) throws JSONException {
+        final String key = lookupKey(user.getEmail());
+        Integer index = indexes(USERS).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey._LAST_UPDATE_USER_EMAIL_, user.getEmail());
+            index = add(USERS, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param provider CFProvider to export
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    int indexOf(final CFProvider provider) throws JSONException {
+        final String key = lookupKey(provider.getName(), provider.getProviderType().name());
+        Integer index = indexes(PROVIDERS).get(key);
+        if (index == null) {
+            final JSONObject json = new JSONObject();
+            json.put(JKey._PROVIDER_NAME_, provider.getName());
+            json.put(JKey._PROVIDER_TYPE_NAME_, provider.getProviderType().name());
+            index = add(PROVIDERS, key, json);
+        }
+        return index;
+    }
+
+    /**
+     * @param section dictionary section
+     * @param key lookup key of the entry
+     * @param json dictionary entry
+     * @return dictionary index
+     * @throws JSONException json exception
+     */
+    private Integer add(final String section, final String key, final JSONObject json) throws JSONException {
+        final JSONArray entries = JUtils.getArray(section, jsonDictionary);
+        final Integer index = entries.length();
+        entries.put(json);
+        indexes(section).put(key, index);
+        return index;
+    }
+
+    /**
+     * @param section dictionary section
+     * @return lookup key, index map of the section
+     */
+    private Map<String, Integer> indexes(final String section) {
+        Map<String, Integer> indexes = sectionIndexes.get(section);
+        if (indexes == null) {
+            indexes = new HashMap<>();
+            sectionIndexes.put(section, indexes);
+        }
+        return indexes;
+    }
+
+    /**
+     * @param values values of the lookup keys, may be <code>null</code>
+     * @return lookup key; entries with the same lookup values resolve to the same entity on import
+     */
+    private static String lookupKey(final String... values) {
+        final StringBuilder key = new StringBuilder();
+        for (final String value : values) {
+            key.append(value == null ? NULL_VALUE : value).append(LOOKUP_KEY_SEPARATOR);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Read and resolve the dictionary section, one lookup per entry.
+     * @param manager import manager
+     * @param jsonObject json to import from
+     * @return dictionary, empty if the json has no dictionary section
+     * @throws JSONException json exception
+     */
+    static JDictionary read(final ImportManager manager, final JSONObject jsonObject) throws JSONException {
+        final JSONObject json = jsonObject.optJSONObject(DICTIONARY);
+        final JDictionary dictionary = new JDictionary(json == null ? new JSONObject() : json);
+        if (json == null) {
+            return dictionary;
+        }
+        JSONArray entries = entries(json, PROTOCOL_ADAPTERS);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.protocolAdapters.add(manager.lookupProtocolAdapter(entry.optString(
+                JKey._PROTOCOL_ADAPTER_NAME_, null), entry.optString(JKey._PROTOCOL_ADAPTER_VERSION_, null)));
+        }
+        entries = entries(json, DEVICE_TYPES);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.deviceTypes.add(manager.lookupDeviceType(entry.optString(JKey._DEVICE_TYPE_NAME_, null), entry
+                .optString(JKey._DEVICE_CATEGORY_NAME_, null)));
+        }
+        entries = entries(json, DEVICE_CLASSES);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.deviceClasses.add(manager.lookupDeviceClass(entry.optString(JKey.NAME, null)));
+        }
+        entries = entries(json, TEMPLATES);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.templates.add(manager.lookupTemplate(entry.optString(JKey._MASTER_TEMPLATE_NAME_, null), entry
+                .optString(JKey._MASTER_TEMPLATE_VENDOR_, null), entry.optString(JKey._MASTER_TEMPLATE_MODEL_NUMBER_,
+                null), entry.optString(JKey._MASTER_TEMPLATE_VERSION_, null)));
+        }
+        entries = entries(json, USERS);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.users.add(manager.lookupUser(entry.optString(JKey._LAST_UPDATE_USER_EMAIL_, null)));
+        }
+        entries = entries(json, PROVIDERS);
+        for (int index = 0, size = entries.length(); index < size; index++) {
+            final JSONObject entry = entries.getJSONObject(index);
+            dictionary.providers.add(manager.lookupCFProvider(entry.optString(JKey._PROVIDER_NAME_, null), entry
+                .optString(JKey._PROVIDER_TYPE_NAME_, null)));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Replace the resolved entities with references of the current persistence context, once it is cleared.
+     * @param manager import manager
+     */
+    void reattach(final ImportManager manager) {
+        reattach(manager, ProtocolAdapter.class, protocolAdapters);
+        reattach(manager, DeviceType.class, deviceTypes);
+        reattach(manager, DeviceClass.class, deviceClasses);
+        reattach(manager, DeviceItem.class, templates);
+        reattach(manager, User.class, users);
+        reattach(manager, CFProvider.class, providers);
+    }
+
+    /**
+     * @param manager import manager
+     * @param entityClass entity class of the section
+     * @param values resolved section
+     */
+    private static <T> void reattach(final ImportManager manager, final Class<T> entityClass, final List<T> values) {
+        for (final ListIterator<T> it = values.listIterator(); it.hasNext();) {
+            it.set(manager.reference(entityClass, it.next()));
+        }
+    }
+
+    /**
+     * @param json dictionary json
+     * @param section dictionary section
+     * @return section entries, empty if missing
+     */
+    private static JSONArray entries(final JSONObject json, final String section) {
+        final JSONArray entries = json.optJSONArray(section);
+        return entries == null ? new JSONArray() : entries;
+    }
+
+    /**
+     * @param manager import manager
+     * @param section dictionary section
+     * @param values resolved section
+     * @param index dictionary index
+     * @return resolved entity, <code>null</code> if not found
+     */
+    private static <T> T get(final ImportManager manager, final String section, final List<T> values,
+        final int index) {
+        if (index < 0 || index >= values.size()) {
+            manager.addError(String.format(ERROR_INDEX_NOT_FOUND, section, index));
+            return null;
+        }
+        return values.get(index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return protocol adapter correspond
+     */
+    ProtocolAdapter getProtocolAdapter(final ImportManager manager, final int index) {
+        return get(manager, PROTOCOL_ADAPTERS, protocolAdapters, index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return device type correspond
+     */
+    DeviceType getDeviceType(final ImportManager manager, final int index) {
+        return get(manager, DEVICE_TYPES, deviceTypes, index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return device class correspond
+     */
+    DeviceClass getDeviceClass(final ImportManager manager, final int index) {
+        return get(manager, DEVICE_CLASSES, deviceClasses, index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return template correspond
+     */
+    DeviceItem getTemplate(final ImportManager manager, final int index) {
+        return get(manager, TEMPLATES, templates, index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return user correspond
+     */
+    User getUser(final ImportManager manager, final int index) {
+        return get(manager, USERS, users, index);
+    }
+
+    /**
+     * @param manager import manager
+     * @param index dictionary index
+     * @return CFProvider correspond
+     */
+    CFProvider getProvider(final ImportManager manager, final int index) {
+        return get(manager, PROVIDERS, providers, index);
+    }
+
+    static final String DICTIONARY = "_dictionary_";
+    static final String _PROTOCOL_ADAPTER_REF_ = "_protocolAdapterRef_";
+    static final String _DEVICE_TYPE_REFS_ = "_deviceTypeRefs_";
+    static final String _DEVICE_CLASS_REFS_ = "_deviceClassRefs_";
+    static final String _MASTER_TEMPLATE_REF_ = "_masterTemplateRef_";
+    static final String _LAST_UPDATE_USER_REF_ = "_lastUpdateUserRef_";
+    static final String _PROVIDER_REF_ = "_providerRef_";
+
+    private static final String PROTOCOL_ADAPTERS = "protocolAdapters";
+    private static final String DEVICE_TYPES = "deviceTypes";
+    private static final String DEVICE_CLASSES = "deviceClasses";
+    private static final String TEMPLATES = "templates";
+    private static final String USERS = "users";
+    private static final String PROVIDERS = "providers";
+    private static final String LOOKUP_KEY_SEPARATOR = "$$$";
+    private static final String NULL_VALUE = "\u0000";
+
+    private static final String ERROR_INDEX_NOT_FOUND = //
+        "Dictionary entry not found [section=\"%s\", index=%d]";
+}
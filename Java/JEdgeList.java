@@ -0,0 +1,214 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * JEdgeList represents parent/child links as parallel primitive id arrays.
+ * <p>
+ * Json formats:
+ * <ul>
+ * <li>pairs: <code>"device_device": [ [parentId, childId], ... ]</code></li>
+ * <li>columns: <code>"device_device_columns": { "parents": [ ... ], "children": [ ... ] }</code></li>
+ * </ul>
+ */
+final class JEdgeList {
+
+    private int[] parents;
+    private int[] children;
+    private int size;
+    private JIntIntMap lastEdges;
+    private BitSet cycles;
+
+    /**
+     * Constructor.
+     */
+    JEdgeList() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial capacity
+     */
+    JEdgeList(final int capacity) {
+        parents = new int[Math.max(1, capacity)];
+        children = new int[parents.length];
+    }
+
+    /**
+     * @param parentId parent id
+     * @param childId child id
+     */
+    void add(final int parentId, final int childId) {
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            children = Arrays.copyOf(children, size * 2);
+        }
+        parents[size] = parentId;
+        children[size] = childId;
+        size++;
+        lastEdges = null;
+        cycles = null;
+    }
+
+    /**
+     * @return number of edges
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index edge index
+     * @return parent id
+     */
+    int getParent(final int index) {
+        return parents[index];
+    }
+
+    /**
+     * @param index edge index
+     * @return child id
+     */
+    int getChild(final int index) {
+        return children[index];
+    }
+
+    /**
+     * A child keeps a single parent, the one of its last edge; its earlier edges are superseded and must not be linked,
+     * as {@link #findCycles()} only walks the last edges.
+     * @param index edge index
+     * @return <code>true</code> if a later edge has the same child
+     */
+    boolean isSuperseded(final int index) {
+        return lastEdges().get(children[index]) != index;
+    }
+
+    /**
+     * Find the edges closing a cycle, in a single pass over the child to parent links. When a child has several
+     * edges, only the last one is walked, see {@link #isSuperseded(int)}. The result is kept until an edge is added, so
+     * that edges linked chunk by chunk are walked once.
+     * @return indexes of the edges closing a cycle
+     */
+    BitSet findCycles() {
+        if (cycles != null) {
+            return cycles;
+        }
+        cycles = new BitSet();
+        final JIntIntMap childEdge = lastEdges();
+        // node id -> walk stamp (index + 1) while walking, DONE once walked
+        final JIntIntMap state = new JIntIntMap(size, NONE);
+        for (int index = 0; index < size; index++) {
+            final int stamp = index + 1;
+            int node = children[index];
+            int edge = childEdge.get(node);
+            while (edge != NONE && state.get(node) == NONE) {
+                state.put(node, stamp);
+                node = parents[edge];
+                edge = childEdge.get(node);
+            }
+            if (edge != NONE && state.get(node) == stamp) {
+                cycles.set(edge);
+            }
+            // mark the walked path as done
+            node = children[index];
+            while (state.get(node) == stamp) {
+                state.put(node, DONE);
+                node = parents[childEdge.get(node)];
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * @return child id -> index of its last edge, kept until an edge is added
+     */
+    private JIntIntMap lastEdges() {
+        if (lastEdges == null) {
+            lastEdges = new JIntIntMap(size, NONE);
+            for (int index = 0; index < size; index++) {
+                lastEdges.put(children[index], index);
+            }
+        }
+        return lastEdges;
+    }
+
+    /**
+     * Read edges from both json formats.
+     * @param jsonObject json to read from
+     * @param pairsKey key of the pairs format
+     * @param columnsKey key of the columns format
+     * @return edges
+     * @throws JSONException json exception
+     */
+    static JEdgeList read(final JSONObject jsonObject, final String pairsKey, final String columnsKey)
+        throws JSONException {
+        final JSONArray pairs = jsonObject.optJSONArray(pairsKey);
+        final JSONObject columns = jsonObject.optJSONObject(columnsKey);
+        final JSONArray jsonParents = columns == null ? null : columns.getJSONArray(PARENTS);
+        final JSONArray jsonChildren = columns == null ? null : columns.getJSONArray(CHILDREN);
+        final int columnsSize = jsonParents == null ? 0 : jsonParents.length();
+        if (jsonChildren != null && jsonChildren.length() != columnsSize) {
+            throw new JSONException(String.format(ERROR_COLUMNS_LENGTH, columnsKey, columnsSize, jsonChildren
+                .length()));
+        }
+        final JEdgeList edges = new JEdgeList(columnsSize + (pairs == null ? 0 : pairs.length()));
+        for (int index = 0; index < columnsSize; index++) {
+            edges.add(jsonParents.getInt(index), jsonChildren.getInt(index));
+        }
+        if (pairs != null) {
+            for (int index = 0, length = pairs.length(); index < length; index++) {
+                final JSONArray parentChild = pairs.getJSONArray(index);
+                edges.add(parentChild.getInt(0), parentChild.getInt(1));
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Append edges in the pairs format.
+     * @param jsonObject json to write to
+     * @param pairsKey key of the pairs format
+     * @throws JSONException json exception
+     */
+    void writePairs(final JSONObject jsonObject, final String pairsKey) throws JSONException {
+        final JSONArray pairs = JUtils.getArray(pairsKey, jsonObject);
+        for (int index = 0; index < size; index++) {
+            pairs.put(new JSONArray().put(parents[index]).put(children[index]));
+        }
+    }
+
+    /**
+     * Append edges in the columns format.
+     * @param jsonObject json to write to
+     * @param columnsKey key of the columns format
+     * @throws JSONException json exception
+     */
+    void writeColumns(final JSONObject jsonObject, final String columnsKey) throws JSONException {
+        JSONObject columns = jsonObject.optJSONObject(columnsKey);
+        if (columns == null) {
+            columns = new JSONObject();
+            jsonObject.put(columnsKey, columns);
+        }
+        final JSONArray jsonParents = JUtils.getArray(PARENTS, columns);
+        final JSONArray jsonChildren = JUtils.getArray(CHILDREN, columns);
+        for (int index = 0; index < size; index++) {
+            jsonParents.put(parents[index]);
+            jsonChildren.put(children[index]);
+        }
+    }
+
+    static final String PARENTS = "parents";
+    static final String CHILDREN = "children";
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NONE = -1;
+    private static final int DONE = 0;
+
+    private static final String ERROR_COLUMNS_LENGTH = //
+        "Edge columns length mismatch [key=\"%s\", parents=%d, children=%d]";
+}
@@ -0,0 +1,172 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.clarecontrols.equator.solstice.db.entities.DeviceClass;
+import com.clarecontrols.equator.solstice.db.entities.DeviceItem;
+import com.clarecontrols.equator.solstice.db.entities.DeviceType;
+
+/**
+ * JExportOptions represents export projection/filter options.
+ * <p>
+ * A new instance exports every field of every record and does not follow children: children are linked, and
+ * exported only when asked with {@link #setFollowChildren(boolean)}. The plain CFNode export asks for it, as it always
+ * exported the whole tree.
+ */
+final class JExportOptions {
+
+    private Set<String> fields;
+    private Set<Integer> zoneIds;
+    private Set<String> deviceCategoryNames;
+    private Set<String> deviceClassNames;
+    private Date changedSince;
+    private boolean followChildren;
+    private boolean columnarEdges;
+    private boolean dictionaryEncoded;
+
+    /**
+     * Lookups written as several keys are selected by their first key: {@link JKey#_MASTER_TEMPLATE_NAME_} selects the
+     * four master template keys, {@link JKey#_PROTOCOL_ADAPTER_NAME_} the protocol adapter name and version,
+     * {@link JKey#_DEVICE_TYPES_} the device type and category names and {@link JKey#_PROVIDER_NAME_} the provider
+     * name and type name; the same keys select the dictionary references of a dictionary-encoded export.
+     * @param fields json keys to export (<code>null</code> exports every field); id is always exported
+     */
+    void setFields(final Set<String> fields) {
+        this.fields = copy(fields);
+    }
+
+    /**
+     * @param zoneIds zone ids a device must belong to (<code>null</code> for any zone)
+     */
+    void setZoneIds(final Set<Integer> zoneIds) {
+        this.zoneIds = copy(zoneIds);
+    }
+
+    /**
+     * @param deviceCategoryNames category names one of the device types must belong to (<code>null</code> for any)
+     */
+    void setDeviceCategoryNames(final Set<String> deviceCategoryNames) {
+        this.deviceCategoryNames = copy(deviceCategoryNames);
+    }
+
+    /**
+     * @param deviceClassNames device class names a device must have one of (<code>null</code> for any)
+     */
+    void setDeviceClassNames(final Set<String> deviceClassNames) {
+        this.deviceClassNames = copy(deviceClassNames);
+    }
+
+    /**
+     * @param changedSince only export devices updated at or after this time (<code>null</code> for any)
+     */
+    void setChangedSince(final Date changedSince) {
+        this.changedSince = changedSince == null ? null : new Date(changedSince.getTime());
+    }
+
+    /**
+     * @return The followChildren.
+     */
+    boolean isFollowChildren() {
+        return followChildren;
+    }
+
+    /**
+     * @param followChildren - export children recursively when <code>true</code>; parent/child links are exported
+     * either way
+     */
+    void setFollowChildren(final boolean followChildren) {
+        this.followChildren = followChildren;
+    }
+
+    /**
+     * @return The columnarEdges.
+     */
+    boolean isColumnarEdges() {
+        return columnarEdges;
+    }
+
+    /**
+     * @param columnarEdges - write parent/child links as parallel id arrays instead of one pair per link
+     */
+    void setColumnarEdges(final boolean columnarEdges) {
+        this.columnarEdges = columnarEdges;
+    }
+
+    /**
+     * @return The dictionaryEncoded.
+     */
+    boolean isDictionaryEncoded() {
+        return dictionaryEncoded;
+    }
+
+    /**
+     * @param dictionaryEncoded - write lookup references once in the dictionary section of the json and refer to them
+     * by index from the records; the device and CFNode exports into the same json share the section
+     */
+    void setDictionaryEncoded(final boolean dictionaryEncoded) {
+        this.dictionaryEncoded = dictionaryEncoded;
+    }
+
+    /**
+     * @param key json key
+     * @return <code>true</code> if the field has to be exported
+     */
+    boolean includes(final String key) {
+        return fields == null || JKey.ID.equals(key) || fields.contains(key);
+    }
+
+    /**
+     * @param device device item
+     * @return <code>true</code> if the device passes every filter
+     */
+    boolean accept(final DeviceItem device) {
+        if (zoneIds != null && (device.getZone() == null || !zoneIds.contains(device.getZone().getId()))) {
+            return false;
+        }
+        if (changedSince != null && (device.getLastUpdate() == null || device.getLastUpdate().before(changedSince))) {
+            return false;
+        }
+        if (deviceClassNames != null && !hasDeviceClass(device)) {
+            return false;
+        }
+        return deviceCategoryNames == null || hasDeviceCategory(device);
+    }
+
+    /**
+     * @param device device item
+     * @return <code>true</code> if one of the device classes is accepted
+     */
+    private boolean hasDeviceClass(final DeviceItem device) {
+        for (final DeviceClass deviceClass : device.getDeviceClasses()) {
+            if (deviceClassNames.contains(deviceClass.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param device device item
+     * @return <code>true</code> if one of the device type categories is accepted
+     */
+    private boolean hasDeviceCategory(final DeviceItem device) {
+        for (final DeviceType deviceType : device.getDeviceTypes()) {
+            if (deviceType.getDeviceCategory() != null
+                && deviceCategoryNames.contains(deviceType.getDeviceCategory().getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param values values to copy
+     * @return unmodifiable copy or <code>null</code>
+     */
+    private static <T> Set<T> copy(final Set<T> values) {
+        return values == null ? null : Collections.unmodifiableSet(new HashSet<>(values));
+    }
+}
@@ -0,0 +1,284 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+/**
+ * JIdMap represents the payload id to entity map of an import.
+ * <p>
+ * Entities of the current chunk are kept on-heap. {@link #spill()} moves them to a {@link JIdStore} as payload id to
+ * database id entries, once they are flushed; spilled entries are read back as entity references, without loading the
+ * entity. The import helpers use the map as a plain {@link Map}; the key, value and entry views are read-only and
+ * iterate without copying, and entries cannot be removed one by one, as the store has no deletion.
+ * @param <T> entity type
+ */
+final class JIdMap<T> extends AbstractMap<Integer, T> {
+
+    private final Class<T> entityClass;
+    private final EntityManager entityManager;
+    private final Map<Integer, T> heap = new HashMap<>();
+    private JIdStore store;
+
+    /**
+     * @param entityClass entity class
+     * @param entityManager entity manager to get references of spilled entities from
+     */
+    JIdMap(final Class<T> entityClass, final EntityManager entityManager) {
+        this.entityClass = entityClass;
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public T get(final Object key) {
+        final T entity = heap.get(key);
+        if (entity != null || store == null || !(key instanceof Integer)) {
+            return entity;
+        }
+        final int entityId = store.get((Integer) key);
+        return entityId == JIdStore.MISSING ? null : entityManager.getReference(entityClass, entityId);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return heap.containsKey(key) || store != null && key instanceof Integer
+            && store.get((Integer) key) != JIdStore.MISSING;
+    }
+
+    @Override
+    public T put(final Integer key, final T value) {
+        return heap.put(key, value);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public T remove(final Object key) {
+        throw new UnsupportedOperationException(ERROR_READ_ONLY);
+    }
+
+    @Override
+    public int size() {
+        if (store == null) {
+            return heap.size();
+        }
+        // a payload id put again after it was spilled is both on the heap and in the store
+        int size = store.size();
+        for (final Integer key : heap.keySet()) {
+            if (store.get(key) == JIdStore.MISSING) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        heap.clear();
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+        return new AbstractSet<Integer>() {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                final Iterator<Map.Entry<Integer, T>> entries = new EntryIterator(false);
+                return new Iterator<Integer>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Integer next() {
+                        return entries.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException(ERROR_READ_ONLY);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(final Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return JIdMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Every spilled entity is returned as an entity reference.
+     */
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                final Iterator<Map.Entry<Integer, T>> entries = new EntryIterator(true);
+                return new Iterator<T>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return entries.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException(ERROR_READ_ONLY);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return JIdMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Every spilled entry is returned with an entity reference.
+     */
+    @Override
+    public Set<Map.Entry<Integer, T>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, T>>() {
+
+            @Override
+            public Iterator<Map.Entry<Integer, T>> iterator() {
+                return new EntryIterator(true);
+            }
+
+            @Override
+            public int size() {
+                return JIdMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * @param payloadId payload id
+     * @return database id of the entity, <code>null</code> if not found or not flushed yet
+     */
+    Integer getEntityId(final Integer payloadId) {
+        final T entity = heap.get(payloadId);
+        if (entity != null) {
+            return (Integer) entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+        }
+        final int entityId = store == null ? JIdStore.MISSING : store.get(payloadId);
+        return entityId == JIdStore.MISSING ? null : entityId;
+    }
+
+    /**
+     * @param payloadId payload id
+     * @param entityId database id of the entity
+     */
+    void putEntityId(final int payloadId, final int entityId) {
+        if (store == null) {
+            store = new JIdStore();
+        }
+        store.put(payloadId, entityId);
+    }
+
+    /**
+     * EntryIterator iterates the on-heap entries, then the spilled entries not put again since.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, T>> {
+
+        private final boolean references;
+        private final Iterator<Map.Entry<Integer, T>> heapEntries = heap.entrySet().iterator();
+        private final JIdStore slots = store;
+        private int slot = -1;
+
+        /**
+         * @param references <code>true</code> to get a reference of each spilled entity, <code>false</code> for keys
+         * only
+         */
+        EntryIterator(final boolean references) {
+            this.references = references;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return heapEntries.hasNext() || slots != null && slot < slots.capacity();
+        }
+
+        @Override
+        public Map.Entry<Integer, T> next() {
+            if (heapEntries.hasNext()) {
+                return new SimpleImmutableEntry<>(heapEntries.next());
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int key = slots.keyAt(slot);
+            final T entity = references ? entityManager.getReference(entityClass, slots.valueAt(slot)) : null;
+            advance();
+            return new SimpleImmutableEntry<>(key, entity);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        /**
+         * Move to the next used slot whose key is not on the heap.
+         */
+        private void advance() {
+            if (slots == null) {
+                return;
+            }
+            do {
+                slot++;
+            } while (slot < slots.capacity() && (!slots.isUsed(slot) || heap.containsKey(slots.keyAt(slot))));
+        }
+    }
+
+    /**
+     * Move the on-heap entities to the store; the entities must be flushed.
+     */
+    void spill() {
+        final List<Integer> payloadIds = new ArrayList<>(heap.keySet());
+        for (final Integer payloadId : payloadIds) {
+            final Integer entityId = getEntityId(payloadId);
+            if (entityId != null) {
+                putEntityId(payloadId, entityId);
+                heap.remove(payloadId);
+            }
+        }
+    }
+
+    private static final String ERROR_READ_ONLY = //
+        "Id map entries cannot be removed one by one";
+}
@@ -0,0 +1,233 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * JIdStore represents an open addressing int to int hash map outside of the java heap.
+ * <p>
+ * Tables up to {@link #getMaxDirectBytes()} live in a direct buffer; larger tables spill to a memory-mapped temporary
+ * file, so the heap footprint stays constant whatever the number of entries. Each slot holds the key, xor
+ * {@link Integer#MIN_VALUE} so that a zero filled slot is free, and the value. {@link Integer#MIN_VALUE} is reserved
+ * and cannot be used as a key.
+ */
+final class JIdStore implements Closeable {
+
+    private static volatile long maxDirectBytes = Long.getLong(JIdStore.MAX_DIRECT_BYTES_PROPERTY,
+        64L * 1024 * 1024);
+
+    private ByteBuffer buffer;
+    private File file;
+    private int capacity;
+    private int size;
+
+    /**
+     * Constructor.
+     * @throws IllegalStateException if the spill file cannot be created
+     */
+    JIdStore() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @return The maximum size in bytes of a table kept in a direct buffer.
+     */
+    static long getMaxDirectBytes() {
+        return maxDirectBytes;
+    }
+
+    /**
+     * @param maxDirectBytes - The maximum size in bytes of a table kept in a direct buffer; larger tables are mapped
+     * to a temporary file
+     */
+    static void setMaxDirectBytes(final long maxDirectBytes) {
+        JIdStore.maxDirectBytes = maxDirectBytes;
+    }
+
+    /**
+     * @param key key
+     * @return value, or {@link #MISSING}
+     */
+    int get(final int key) {
+        final int stored = key ^ FREE_KEY;
+        final int mask = capacity - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final int current = buffer.getInt(slot * SLOT_BYTES);
+            if (current == stored) {
+                return buffer.getInt(slot * SLOT_BYTES + 4);
+            }
+            if (current == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * @param key key, not {@link Integer#MIN_VALUE}
+     * @param value value
+     */
+    void put(final int key, final int value) {
+        if (key == FREE_KEY) {
+            throw new IllegalArgumentException(String.format(ERROR_RESERVED_KEY, key));
+        }
+        if ((size + 1) * 2L > capacity) {
+            rehash();
+        }
+        final int stored = key ^ FREE_KEY;
+        final int mask = capacity - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final int current = buffer.getInt(slot * SLOT_BYTES);
+            if (current == stored || current == 0) {
+                if (current == 0) {
+                    buffer.putInt(slot * SLOT_BYTES, stored);
+                    size++;
+                }
+                buffer.putInt(slot * SLOT_BYTES + 4, value);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return table capacity; slots are numbered from 0
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param slot slot number
+     * @return <code>true</code> if the slot holds an entry
+     */
+    boolean isUsed(final int slot) {
+        return buffer.getInt(slot * SLOT_BYTES) != 0;
+    }
+
+    /**
+     * @param slot slot number of a used slot
+     * @return key of the slot
+     */
+    int keyAt(final int slot) {
+        return buffer.getInt(slot * SLOT_BYTES) ^ FREE_KEY;
+    }
+
+    /**
+     * @param slot slot number of a used slot
+     * @return value of the slot
+     */
+    int valueAt(final int slot) {
+        return buffer.getInt(slot * SLOT_BYTES + 4);
+    }
+
+    /**
+     * Release the table; a spill file is deleted.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        capacity = 0;
+        size = 0;
+        deleteFile();
+    }
+
+    /**
+     * Double the table to keep the load factor under one half.
+     */
+    private void rehash() {
+        final ByteBuffer oldBuffer = buffer;
+        final File oldFile = file;
+        final int oldCapacity = capacity;
+        file = null;
+        allocate(oldCapacity * 2);
+        size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final int stored = oldBuffer.getInt(slot * SLOT_BYTES);
+            if (stored != 0) {
+                put(stored ^ FREE_KEY, oldBuffer.getInt(slot * SLOT_BYTES + 4));
+            }
+        }
+        if (oldFile != null && !oldFile.delete()) {
+            oldFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * @param newCapacity table capacity, power of two
+     * @throws IllegalStateException if the table is too large or the spill file cannot be created
+     */
+    private void allocate(final int newCapacity) {
+        final long bytes = (long) newCapacity * SLOT_BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format(ERROR_TOO_LARGE, size));
+        }
+        if (bytes <= maxDirectBytes) {
+            buffer = ByteBuffer.allocateDirect((int) bytes);
+        } else {
+            try {
+                file = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+                file.deleteOnExit();
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(bytes);
+                    // the mapping stays valid after the channel is closed
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                }
+            } catch (final IOException ex) {
+                final String message = String.format(ERROR_SPILL_FILE, file);
+                deleteFile();
+                throw new IllegalStateException(message, ex);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Delete the spill file, if any.
+     */
+    private void deleteFile() {
+        if (file != null && !file.delete()) {
+            file.deleteOnExit();
+        }
+        file = null;
+    }
+
+    /**
+     * @param key key
+     * @return spread hash
+     */
+    private static int hash(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Value returned by {@link #get(int)} for missing keys. */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /** System property overriding the default direct buffer budget (64 MiB). */
+    static final String MAX_DIRECT_BYTES_PROPERTY = "solstice.import.idStore.maxDirectBytes";
+
+    private static final int FREE_KEY = Integer.MIN_VALUE;
+    private static final int SLOT_BYTES = 8;
+    private static final int MIN_CAPACITY = 1024;
+    private static final String SPILL_FILE_PREFIX = "import-ids-";
+    private static final String SPILL_FILE_SUFFIX = ".bin";
+
+    private static final String ERROR_RESERVED_KEY = //
+        "Reserved key [key=%d]";
+
+    private static final String ERROR_TOO_LARGE = //
+        "Id store too large [size=%d]";
+
+    private static final String ERROR_SPILL_FILE = //
+        "Id store spill file failed [file=\"%s\"]";
+}
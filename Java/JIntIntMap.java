@@ -0,0 +1,126 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.Arrays;
+
+/**
+ * JIntIntMap represents an open addressing int to int hash map, without boxing.
+ * <p>
+ * {@link Integer#MIN_VALUE} is reserved and cannot be used as a key.
+ */
+final class JIntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private final int missingValue;
+
+    /**
+     * @param expectedSize expected number of entries
+     * @param missingValue value returned for missing keys
+     */
+    JIntIntMap(final int expectedSize, final int missingValue) {
+        this.missingValue = missingValue;
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @param key key
+     * @return value, or the missing value
+     */
+    int get(final int key) {
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final int current = keys[slot];
+            if (current == key) {
+                return values[slot];
+            }
+            if (current == FREE) {
+                return missingValue;
+            }
+        }
+    }
+
+    /**
+     * @param key key, not {@link Integer#MIN_VALUE}
+     * @param value value
+     * @return previous value, or the missing value
+     */
+    int put(final int key, final int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Reserved key [key=" + key + "]");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final int current = keys[slot];
+            if (current == key) {
+                final int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (current == FREE) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return missingValue;
+            }
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Grow the table to keep the load factor under one half.
+     */
+    private void rehash() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != FREE) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    /**
+     * @param capacity table capacity, power of two
+     */
+    private void allocate(final int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @param expectedSize expected number of entries
+     * @return power of two capacity
+     */
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * @param key key
+     * @return spread hash
+     */
+    private static int hash(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+}
@@ -0,0 +1,422 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * JLazyDocument represents a json payload whose large arrays are decoded on demand.
+ * <p>
+ * A structural pre-scan records the character offsets of each element of the indexed arrays (devices, cfnodes and
+ * the pair edge arrays); every other top-level value is decoded up front. The indexed arrays are exposed as
+ * {@link JSONArray} instances that decode an element each time it is read, so the import helpers use them unchanged
+ * and no element is kept in memory after use.
+ */
+final class JLazyDocument {
+
+    private final String text;
+    private final JSONObject jsonObject = new JSONObject();
+    private final Map<String, LazyArray> arrays = new HashMap<>();
+
+    /**
+     * @param text json text
+     * @param indexedKeys top-level keys of the arrays to index instead of decoding
+     * @throws JSONException json exception
+     */
+    private JLazyDocument(final String text, final String... indexedKeys) throws JSONException {
+        this.text = text;
+        scan(Arrays.asList(indexedKeys));
+    }
+
+    /**
+     * @param text project version json text
+     * @return document with devices, cfnodes, device_device and cfnode_cfnode indexed
+     * @throws JSONException json exception
+     */
+    static JLazyDocument parse(final String text) throws JSONException {
+        return new JLazyDocument(text, JKey.DEVICES, JKey.CFNODES, JKey.DEVICE_DEVICE, JKey.CFNODE_CFNODE);
+    }
+
+    /**
+     * @return top-level json object; indexed arrays decode their elements on access
+     */
+    JSONObject getJSONObject() {
+        return jsonObject;
+    }
+
+    /**
+     * @param key key of an indexed array
+     * @return number of elements, 0 if the array is missing
+     */
+    int length(final String key) {
+        final LazyArray array = arrays.get(key);
+        return array == null ? 0 : array.length();
+    }
+
+    /**
+     * Scan the top-level object.
+     * @param indexedKeys keys of the arrays to index
+     * @throws JSONException json exception
+     */
+    private void scan(final List<String> indexedKeys) throws JSONException {
+        int pos = expect(skipWhitespace(0), '{');
+        pos = skipWhitespace(pos);
+        if (charAt(pos) == '}') {
+            return;
+        }
+        while (true) {
+            final int keyEnd = skipValue(pos);
+            final Object key = decode(pos, keyEnd);
+            if (!(key instanceof String)) {
+                throw syntaxError(pos, "key");
+            }
+            pos = skipWhitespace(expect(skipWhitespace(keyEnd), ':'));
+            final int valueEnd;
+            if (indexedKeys.contains(key) && charAt(pos) == '[') {
+                final LazyArray array = new LazyArray();
+                valueEnd = scanArray(pos, array);
+                arrays.put((String) key, array);
+                jsonObject.put((String) key, array);
+            } else {
+                valueEnd = skipValue(pos);
+                jsonObject.put((String) key, decode(pos, valueEnd));
+            }
+            pos = skipWhitespace(valueEnd);
+            if (charAt(pos) == '}') {
+                return;
+            }
+            pos = skipWhitespace(expect(pos, ','));
+        }
+    }
+
+    /**
+     * @param start offset of '['
+     * @param array array to record element offsets into
+     * @return offset after ']'
+     * @throws JSONException json exception
+     */
+    private int scanArray(final int start, final LazyArray array) throws JSONException {
+        int pos = skipWhitespace(start + 1);
+        if (charAt(pos) == ']') {
+            return pos + 1;
+        }
+        while (true) {
+            final int end = skipValue(pos);
+            array.add(pos, end);
+            pos = skipWhitespace(end);
+            if (charAt(pos) == ']') {
+                return pos + 1;
+            }
+            pos = skipWhitespace(expect(pos, ','));
+        }
+    }
+
+    /**
+     * @param start offset of the value
+     * @return offset after the value
+     * @throws JSONException json exception
+     */
+    private int skipValue(final int start) throws JSONException {
+        final char first = charAt(start);
+        if (first == '"') {
+            return skipString(start);
+        }
+        if (first != '{' && first != '[') {
+            int pos = start;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            if (pos == start) {
+                throw syntaxError(start, "value");
+            }
+            return pos;
+        }
+        int depth = 0;
+        int pos = start;
+        while (true) {
+            final char c = charAt(pos);
+            if (c == '"') {
+                pos = skipString(pos);
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return pos + 1;
+                }
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * @param start offset of the opening quote
+     * @return offset after the closing quote
+     * @throws JSONException json exception
+     */
+    private int skipString(final int start) throws JSONException {
+        int pos = start + 1;
+        while (true) {
+            final char c = charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+            } else if (c == '"') {
+                return pos + 1;
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * @param start offset to skip whitespace from
+     * @return offset of the next non whitespace character
+     */
+    private int skipWhitespace(final int start) {
+        int pos = start;
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @param pos offset
+     * @param expected expected character
+     * @return offset after the character
+     * @throws JSONException json exception
+     */
+    private int expect(final int pos, final char expected) throws JSONException {
+        if (charAt(pos) != expected) {
+            throw syntaxError(pos, "'" + expected + "'");
+        }
+        return pos + 1;
+    }
+
+    /**
+     * @param pos offset
+     * @return character at offset
+     * @throws JSONException json exception
+     */
+    private char charAt(final int pos) throws JSONException {
+        if (pos >= text.length()) {
+            throw syntaxError(pos, "more input");
+        }
+        return text.charAt(pos);
+    }
+
+    /**
+     * @param start start offset
+     * @param end end offset
+     * @return decoded value
+     * @throws JSONException json exception
+     */
+    private Object decode(final int start, final int end) throws JSONException {
+        return new JSONTokener(text.substring(start, end)).nextValue();
+    }
+
+    /**
+     * @param pos offset
+     * @param expected what was expected
+     * @return json exception
+     */
+    private static JSONException syntaxError(final int pos, final String expected) {
+        return new JSONException(String.format(ERROR_SYNTAX, expected, pos));
+    }
+
+    /**
+     * LazyArray represents a read-only indexed array; elements are decoded on each access.
+     * <p>
+     * The backing list of {@link JSONArray} stays empty, so every method reading it is overridden to go through
+     * {@link #get(int)}, and every mutator is rejected with an {@link UnsupportedOperationException}. The typed
+     * accessors (<code>getJSONObject</code>, <code>optInt</code>, ...) already go through {@link #get(int)} or
+     * {@link #opt(int)}.
+     */
+    private final class LazyArray extends JSONArray {
+
+        private int[] offsets = new int[INITIAL_CAPACITY * 2];
+        private int size;
+
+        /**
+         * @param start start offset of the element
+         * @param end end offset of the element
+         */
+        void add(final int start, final int end) {
+            if (size * 2 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[size * 2] = start;
+            offsets[size * 2 + 1] = end;
+            size++;
+        }
+
+        @Override
+        public int length() {
+            return size;
+        }
+
+        @Override
+        public Object get(final int index) throws JSONException {
+            if (index < 0 || index >= size) {
+                throw new JSONException(String.format(ERROR_INDEX, index, size));
+            }
+            return decode(offsets[index * 2], offsets[index * 2 + 1]);
+        }
+
+        @Override
+        public Object opt(final int index) {
+            try {
+                return index < 0 || index >= size ? null : get(index);
+            } catch (final JSONException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                public Object next() {
+                    if (index >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return opt(index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException(ERROR_READ_ONLY);
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return size == 0 ? "[]" : "[" + text.substring(offsets[0], offsets[size * 2 - 1]) + "]";
+        }
+
+        /**
+         * Decodes every element.
+         */
+        @Override
+        public Writer write(final Writer writer, final int indentFactor, final int indent) throws JSONException {
+            return decodeAll().write(writer, indentFactor, indent);
+        }
+
+        /**
+         * Decodes every element.
+         */
+        @Override
+        public String join(final String separator) throws JSONException {
+            return decodeAll().join(separator);
+        }
+
+        /**
+         * Decodes every element.
+         */
+        @Override
+        public boolean similar(final Object other) {
+            try {
+                return decodeAll().similar(other);
+            } catch (final JSONException ex) {
+                return false;
+            }
+        }
+
+        /**
+         * Decodes every element.
+         */
+        @Override
+        public List<Object> toList() {
+            return decodeAll().toList();
+        }
+
+        @Override
+        public JSONArray put(final Object value) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public JSONArray put(final int index, final Object value) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public JSONArray putAll(final Collection<?> collection) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public JSONArray putAll(final Iterable<?> iter) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public JSONArray putAll(final JSONArray array) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public JSONArray putAll(final Object array) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public Object remove(final int index) {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException(ERROR_READ_ONLY);
+        }
+
+        /**
+         * @return plain json array holding every element, decoded
+         * @throws JSONException json exception
+         */
+        private JSONArray decodeAll() throws JSONException {
+            final JSONArray decoded = new JSONArray();
+            for (int index = 0; index < size; index++) {
+                decoded.put(get(index));
+            }
+            return decoded;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final String ERROR_SYNTAX = //
+        "Invalid json, expected %s [offset=%d]";
+
+    private static final String ERROR_INDEX = //
+        "JSONArray[%d] not found [length=%d]";
+
+    private static final String ERROR_READ_ONLY = //
+        "Indexed json array is read-only";
+}
@@ -0,0 +1,80 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JStringPool represents a string de-duplication table.
+ * <p>
+ * Imports create one pool for attribute values (vendor, model number, ...), which lives as long as the import.
+ * {@link #SHARED} is a bounded pool shared by all imports for names that repeat across projects, such as property
+ * keys; once full it returns values unchanged.
+ */
+final class JStringPool {
+
+    private static final int MAX_SHARED_SIZE = 4096;
+
+    /** Pool shared by all imports. */
+    static final JStringPool SHARED = new JStringPool(MAX_SHARED_SIZE);
+
+    private final ConcurrentMap<String, String> pool = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * Constructor of an unbounded pool.
+     */
+    JStringPool() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize maximum number of pooled strings
+     */
+    JStringPool(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param value string value, may be <code>null</code>
+     * @return pooled instance equal to value
+     */
+    String intern(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() >= maxSize) {
+            return value;
+        }
+        final String previous = pool.putIfAbsent(value, value);
+        return previous == null ? value : previous;
+    }
+
+    /**
+     * @param map string map, may be <code>null</code>
+     * @param keyPool pool for the keys
+     * @return copy of the map with pooled keys and values
+     */
+    Map<String, String> intern(final Map<String, String> map, final JStringPool keyPool) {
+        if (map == null) {
+            return null;
+        }
+        final Map<String, String> result = new HashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            result.put(keyPool.intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * @return number of pooled strings
+     */
+    int size() {
+        return pool.size();
+    }
+}
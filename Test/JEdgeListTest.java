@@ -0,0 +1,153 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JEdgeListTest {
+
+	@Test
+	public void noCycle() {
+		JEdgeList edges = edges(1, 2, 2, 3, 1, 4);
+		assertTrue(edges.findCycles().isEmpty());
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void selfLoop() {
+		JEdgeList edges = edges(1, 2, 3, 3);
+		assertEquals(bits(1), edges.findCycles());
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void twoNodeCycle() {
+		JEdgeList edges = edges(1, 2, 2, 1);
+		assertEquals(1, edges.findCycles().cardinality());
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void duplicatedEdgeInCycle() {
+		JEdgeList edges = edges(2, 1, 1, 2, 2, 1);
+		assertTrue(edges.isSuperseded(0));
+		assertFalse(edges.isSuperseded(1));
+		assertFalse(edges.isSuperseded(2));
+		assertFalse(edges.findCycles().get(0));
+		assertEquals(1, edges.findCycles().cardinality());
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void duplicatedEdge() {
+		JEdgeList edges = edges(1, 2, 1, 2);
+		assertTrue(edges.isSuperseded(0));
+		assertTrue(edges.findCycles().isEmpty());
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void multipleParents() {
+		JEdgeList edges = edges(1, 3, 2, 3);
+		assertTrue(edges.isSuperseded(0));
+		assertFalse(edges.isSuperseded(1));
+		assertTrue(edges.findCycles().isEmpty());
+		assertEquals(Integer.valueOf(2), link(edges).get(3));
+	}
+
+	@Test
+	public void multipleParentsClosingCycle() {
+		// 3 -> 1 -> 2 -> 3 through the last parent of 1; the first parent of 1 is superseded
+		JEdgeList edges = edges(4, 1, 1, 2, 2, 3, 3, 1);
+		assertTrue(edges.isSuperseded(0));
+		assertEquals(1, edges.findCycles().cardinality());
+		assertFalse(edges.findCycles().get(0));
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void tailIntoCycle() {
+		// 5 -> 4 -> 2 <-> 3, the tail is walked first
+		JEdgeList edges = edges(4, 5, 2, 4, 3, 2, 2, 3);
+		BitSet cycles = edges.findCycles();
+		assertEquals(1, cycles.cardinality());
+		assertFalse(cycles.get(0));
+		assertFalse(cycles.get(1));
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void cycleBeforeTail() {
+		JEdgeList edges = edges(3, 2, 2, 3, 2, 4, 4, 5);
+		BitSet cycles = edges.findCycles();
+		assertEquals(1, cycles.cardinality());
+		assertFalse(cycles.get(2));
+		assertFalse(cycles.get(3));
+		assertLinkedWithoutCycle(edges);
+	}
+
+	@Test
+	public void addResetsCycles() {
+		JEdgeList edges = edges(1, 2);
+		assertTrue(edges.findCycles().isEmpty());
+		edges.add(2, 1);
+		assertEquals(1, edges.findCycles().cardinality());
+		edges.add(3, 2);
+		assertTrue(edges.isSuperseded(0));
+		assertTrue(edges.findCycles().isEmpty());
+	}
+
+	@Test
+	public void grows() {
+		JEdgeList edges = new JEdgeList(1);
+		for (int child = 1; child <= 100; child++) {
+			edges.add(child - 1, child);
+		}
+		assertEquals(100, edges.size());
+		assertEquals(40, edges.getParent(40));
+		assertEquals(41, edges.getChild(40));
+		assertTrue(edges.findCycles().isEmpty());
+	}
+
+	// parent/child pairs
+	private static JEdgeList edges(int... ids) {
+		JEdgeList edges = new JEdgeList();
+		for (int index = 0; index < ids.length; index += 2)
+			edges.add(ids[index], ids[index + 1]);
+		return edges;
+	}
+
+	private static BitSet bits(int... indexes) {
+		BitSet bits = new BitSet();
+		for (int index : indexes)
+			bits.set(index);
+		return bits;
+	}
+
+	// child -> parent, linked in order as the import does: flagged and superseded edges are skipped
+	private static Map<Integer, Integer> link(JEdgeList edges) {
+		BitSet cycles = edges.findCycles();
+		Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+		for (int index = 0; index < edges.size(); index++)
+			if (!cycles.get(index) && !edges.isSuperseded(index))
+				parents.put(edges.getChild(index), edges.getParent(index));
+		return parents;
+	}
+
+	private static void assertLinkedWithoutCycle(JEdgeList edges) {
+		Map<Integer, Integer> parents = link(edges);
+		for (Integer start : parents.keySet()) {
+			Set<Integer> path = new HashSet<Integer>();
+			for (Integer node = start; node != null; node = parents.get(node))
+				assertTrue("cycle through " + node, path.add(node));
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.clarecontrols.equator.solstice.api.beta;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JIntIntMapTest {
+
+	@Test
+	public void missingKey() {
+		JIntIntMap map = new JIntIntMap(0, -1);
+		assertEquals(-1, map.get(42));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void putAndReplace() {
+		JIntIntMap map = new JIntIntMap(4, -1);
+		assertEquals(-1, map.put(7, 70));
+		assertEquals(70, map.put(7, 71));
+		assertEquals(71, map.get(7));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void negativeAndZeroKeys() {
+		JIntIntMap map = new JIntIntMap(4, -1);
+		map.put(0, 1);
+		map.put(-5, 2);
+		map.put(Integer.MAX_VALUE, 3);
+		assertEquals(1, map.get(0));
+		assertEquals(2, map.get(-5));
+		assertEquals(3, map.get(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void rehash() {
+		JIntIntMap map = new JIntIntMap(1, -1);
+		for (int key = 0; key < 10000; key++)
+			map.put(key * 16, key);
+		assertEquals(10000, map.size());
+		for (int key = 0; key < 10000; key++)
+			assertEquals(key, map.get(key * 16));
+		assertEquals(-1, map.get(8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void reservedKey() {
+		new JIntIntMap(1, -1).put(Integer.MIN_VALUE, 0);
+	}
+}
@@ -1,7 +1,17 @@
 package com.clarecontrols.clarefusion.extensions;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.openqa.selenium.JavascriptExecutor; 
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver; 
 import org.openqa.selenium.WebDriverException; 
 import org.openqa.selenium.WebElement;
@@ -9,16 +19,24 @@ import org.openqa.selenium.WebElement;
 @SuppressWarnings("unchecked")
 public class SizzleSelector {
 	private JavascriptExecutor driver;
+	private WebDriver webDriver;
+	private final long scriptTimeoutMillis;
 
+	// for a driver left at the Selenium default script timeout
 	public SizzleSelector(WebDriver webDriver) { 
-		driver = (JavascriptExecutor) webDriver; 
+		this(webDriver, DEFAULT_SCRIPT_TIMEOUT_MILLIS);
+	}
+
+	// scriptTimeoutMillis is the script timeout the driver is configured with; waitForSizzle raises it for the wait
+	// and restores this value, as WebDriver cannot read back the current one
+	public SizzleSelector(WebDriver webDriver, long scriptTimeoutMillis) {
+		this.webDriver = webDriver;
+		driver = (JavascriptExecutor) webDriver;
+		this.scriptTimeoutMillis = scriptTimeoutMillis;
 	}
 
 	public WebElement findElementBySizzleCss(String using) { 
-		injectSizzleIfNeeded(); 
-		String javascriptExpression = createSizzleSelectorExpression(using); 
-		List<WebElement> elements = (List<WebElement>) 
-		driver .executeScript(javascriptExpression); 
+		List<WebElement> elements = (List<WebElement>) executeSizzleScript(SIZZLE_SELECTOR_EXPRESSION, using);
 		if (elements.size() > 0) 
 			return (WebElement) 
 		elements.get(0); 
@@ -26,30 +44,164 @@ public class SizzleSelector {
 	} 
 
 	public List<WebElement> findElementsBySizzleCss(String using) { 
-		injectSizzleIfNeeded(); 
-		String javascriptExpression = createSizzleSelectorExpression(using); 
-		return (List<WebElement>) driver.executeScript(javascriptExpression); 
+		return (List<WebElement>) executeSizzleScript(SIZZLE_SELECTOR_EXPRESSION, using);
 	} 
 
-	private String createSizzleSelectorExpression(String using) { 
-		return "return Sizzle(\"" + using + "\")"; 
-	} 
+	// resolves every selector in one round-trip; selector -> matching elements, in the order of the selectors
+	public Map<String, List<WebElement>> findElementsBySizzleCss(Collection<String> selectors) {
+		Map<String, List<WebElement>> elements = new LinkedHashMap<String, List<WebElement>>();
+		if (selectors.isEmpty())
+			return elements;
+		Map<String, List<WebElement>> found = (Map<String, List<WebElement>>) executeSizzleScript(
+			SIZZLE_GUARD + "var selectors = arguments[0], found = {};"
+				+ "for (var i = 0; i < selectors.length; i++) { found[selectors[i]] = Sizzle(selectors[i]); }"
+				+ "return found;", selectors);
+		for (String selector : selectors)
+			elements.put(selector, found.get(selector));
+		return elements;
+	}
+
+	// waits inside the page, in one round-trip: the selector is re-evaluated on every DOM mutation (and on every
+	// animation frame for visible(), as visibility can change without mutations); returns the matching elements
+	public List<WebElement> waitForSizzle(String selector, long timeoutMillis, Condition condition) {
+		long start = System.currentTimeMillis();
+		Map<String, Object> result;
+		try {
+			result = waitForSizzleScript(selector, timeoutMillis, condition);
+			if (result == null) {
+				injectSizzle();
+				// the injection is part of the wait, so only the time left is granted to the second attempt
+				long remainingMillis = Math.max(0, timeoutMillis - (System.currentTimeMillis() - start));
+				result = waitForSizzleScript(selector, remainingMillis, condition);
+			}
+		} finally {
+			webDriver.manage().timeouts().setScriptTimeout(scriptTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		// still no Sizzle right after the injection: the page navigated or reloaded in between
+		if (result == null)
+			throw new WebDriverException("Sizzle was lost after injection, waiting for Sizzle selector "" + selector
+				+ ""; the page probably navigated");
+		if (!Boolean.TRUE.equals(result.get("matched")))
+			throw new TimeoutException("Timed out after " + timeoutMillis + " ms waiting for Sizzle selector \""
+				+ selector + "\" to be " + condition);
+		return (List<WebElement>) result.get("elements");
+	}
+
+	private Map<String, Object> waitForSizzleScript(String selector, long timeoutMillis, Condition condition) {
+		webDriver.manage().timeouts().setScriptTimeout(timeoutMillis + SCRIPT_TIMEOUT_MARGIN_MILLIS,
+			TimeUnit.MILLISECONDS);
+		return (Map<String, Object>) driver.executeAsyncScript(WAIT_FOR_SIZZLE_SCRIPT, selector, condition.mode,
+			condition.count, timeoutMillis);
+	}
+
+	// the guard makes the query itself report a document without Sizzle, so no separate load probe is needed;
+	// Sizzle is injected only once per document, when the guard reports it missing
+	private Object executeSizzleScript(String script, Object... args) {
+		Object result = driver.executeScript(script, args);
+		if (result == null) {
+			injectSizzle();
+			result = driver.executeScript(script, args);
+		}
+		return result;
+	}
 			
-	private void injectSizzleIfNeeded() { 
-		if (!sizzleLoaded()) injectSizzle(); 
-	} public Boolean sizzleLoaded() { 
+	public Boolean sizzleLoaded() { 
 		Boolean loaded; 
 		try { 
-			loaded = (Boolean) driver.executeScript("return Sizzle()!=null"); 
+			loaded = (Boolean) driver.executeScript("return typeof Sizzle === 'function'"); 
 		} catch (WebDriverException e) { 
 			loaded = false; 
 		} return loaded; 
 	} 
+
+	// evaluates the bundled Sizzle inline, so it is defined once the script returns; define/module/exports are
+	// shadowed so that Sizzle always installs itself as a global, even on pages with an AMD or CommonJS loader
 	public void injectSizzle() { 
-		driver.executeScript(" var headID = document.getElementsByTagName(\"head\")[0];" + 
-			"var newScript = document.createElement('script');" + 
-			"newScript.type = 'text/javascript';" + 
-			"newScript.src = 'http://cdnjs.cloudflare.com/ajax/libs/sizzle/1.10.5/sizzle.min.js';"
-			+ "headID.appendChild(newScript);"); 
+		Boolean loaded = (Boolean) driver.executeScript("(function(define, module, exports) {\n" + sizzleSource()
+			+ "\n}).call(window);return typeof Sizzle === 'function';");
+		if (!Boolean.TRUE.equals(loaded))
+			throw new WebDriverException("Sizzle failed to load from " + SIZZLE_RESOURCE);
 	} 
+
+	private static synchronized String sizzleSource() {
+		if (sizzleSource == null) {
+			InputStream in = SizzleSelector.class.getResourceAsStream(SIZZLE_RESOURCE);
+			if (in == null)
+				throw new IllegalStateException("Sizzle resource not found on the classpath: " + SIZZLE_RESOURCE);
+			try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				StringBuilder source = new StringBuilder();
+				char[] buffer = new char[8192];
+				for (int read; (read = reader.read(buffer)) > 0;)
+					source.append(buffer, 0, read);
+				sizzleSource = source.toString();
+			} catch (IOException e) {
+				throw new IllegalStateException("Sizzle resource could not be read: " + SIZZLE_RESOURCE, e);
+			}
+		}
+		return sizzleSource;
+	}
+
+	private static String sizzleSource;
+
+	public static final class Condition {
+		private final String mode;
+		private final int count;
+
+		private Condition(String mode, int count) {
+			this.mode = mode;
+			this.count = count;
+		}
+
+		// at least one element matches
+		public static Condition present() {
+			return new Condition("present", 0);
+		}
+
+		// at least one matching element is displayed
+		public static Condition visible() {
+			return new Condition("visible", 0);
+		}
+
+		// exactly count elements match
+		public static Condition count(int count) {
+			return new Condition("count", count);
+		}
+
+		@Override
+		public String toString() {
+			return "count".equals(mode) ? "matched " + count + " times" : mode;
+		}
+	}
+
+	// upstream dist/sizzle.js, bundled next to this class, so injection needs no network access
+	private static final String SIZZLE_RESOURCE = "sizzle.js";
+	private static final String SIZZLE_GUARD = "if (typeof Sizzle !== 'function') return null;";
+	// the selector is passed as a script argument, so it needs no escaping
+	private static final String SIZZLE_SELECTOR_EXPRESSION = SIZZLE_GUARD + "return Sizzle(arguments[0]);";
+	private static final long SCRIPT_TIMEOUT_MARGIN_MILLIS = 1000;
+	// Selenium's default script timeout
+	private static final long DEFAULT_SCRIPT_TIMEOUT_MILLIS = 30000;
+	// resolves null without Sizzle, { matched, elements } otherwise
+	private static final String WAIT_FOR_SIZZLE_SCRIPT =
+		"var selector = arguments[0], mode = arguments[1], count = arguments[2], timeout = arguments[3];"
+		+ "var callback = arguments[arguments.length - 1];"
+		+ "if (typeof Sizzle !== 'function') { callback(null); return; }"
+		+ "var done = false, observer = null, frame = 0, timer = 0;"
+		+ "function visible(e) {"
+		+ "  return (e.offsetWidth > 0 || e.offsetHeight > 0 || e.getClientRects().length > 0)"
+		+ "    && window.getComputedStyle(e).visibility !== 'hidden'; }"
+		+ "function finish(matched, elements) {"
+		+ "  done = true; if (observer) observer.disconnect(); cancelAnimationFrame(frame); clearTimeout(timer);"
+		+ "  callback({ matched: matched, elements: elements }); }"
+		+ "function test() {"
+		+ "  if (done) return true;"
+		+ "  var found = Sizzle(selector);"
+		+ "  if (mode === 'visible') found = found.filter(visible);"
+		+ "  if (mode === 'count' ? found.length === count : found.length > 0) { finish(true, found); return true; }"
+		+ "  return false; }"
+		+ "if (test()) return;"
+		+ "timer = setTimeout(function() { if (!done) finish(false, Sizzle(selector)); }, timeout);"
+		+ "observer = new MutationObserver(test);"
+		+ "observer.observe(document, { childList: true, subtree: true, attributes: true, characterData: true });"
+		+ "if (mode === 'visible') (function loop() { if (!test()) frame = requestAnimationFrame(loop); })();";
 }
\ No newline at end of file